@@ -1,6 +1,11 @@
 package com.example.doodle;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import com.example.doodle.imaging.BitmapPool;
 
 public class BitmapScaler
 {
@@ -12,6 +17,18 @@ public class BitmapScaler
     }
 
 
+    // scale and keep aspect ratio, drawing into a bitmap from the pool instead of allocating a new one
+    public static Bitmap scaleToFitWidth(Bitmap b, int width, BitmapPool pool)
+    {
+        float factor = width / (float) b.getWidth();
+        Bitmap scaled = pool.getCleared(width, (int) (b.getHeight() * factor), Bitmap.Config.ARGB_8888);
+        Matrix matrix = new Matrix();
+        matrix.setScale(factor, factor);
+        new Canvas(scaled).drawBitmap(b, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return scaled;
+    }
+
+
     // scale and keep aspect ratio
     public static Bitmap scaleToFitHeight(Bitmap b, int height)
     {
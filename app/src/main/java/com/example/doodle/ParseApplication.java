@@ -2,8 +2,11 @@ package com.example.doodle;
 
 import android.app.Application;
 
+import com.example.doodle.imaging.BitmapPool;
+import com.example.doodle.imaging.ImageStore;
 import com.example.doodle.models.Doodle;
 import com.example.doodle.models.Game;
+import com.example.doodle.submission.SubmissionOutbox;
 import com.parse.Parse;
 import com.parse.ParseInstallation;
 import com.parse.ParseObject;
@@ -19,14 +22,30 @@ public class ParseApplication extends Application {
         ParseObject.registerSubclass(Game.class);
 
         // Initialize parse
+        // The local datastore keeps the last results of the galleries, see CachedQuery
         Parse.initialize(new Parse.Configuration.Builder(this)
                 .applicationId(getString(R.string.back4app_app_id))
                 .clientKey(getString(R.string.back4app_client_key))
                 .server(getString(R.string.back4app_server_url))
+                .enableLocalDataStore()
                 .build());
 
         ParseInstallation installation = ParseInstallation.getCurrentInstallation();
         installation.put("GCMSenderId", getResources().getString(R.string.firebase_sender_id));
         installation.saveInBackground();
+
+        // Bitmaps are passed between screens by key, see ImageStore
+        ImageStore.init(this);
+
+        // Send any doodles that were still waiting to be submitted when the app was last closed
+        SubmissionOutbox.init(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // Let go of bitmaps kept around for reuse when the system needs the memory
+        BitmapPool.get().trimMemory(level);
     }
 }
@@ -21,6 +21,7 @@ import com.bumptech.glide.Glide;
 import com.example.doodle.R;
 import com.example.doodle.adapters.DoodleAdapter;
 import com.example.doodle.models.Doodle;
+import com.example.doodle.sync.CachedQuery;
 import com.google.android.material.snackbar.Snackbar;
 import com.parse.ParseQuery;
 import com.parse.ParseUser;
@@ -30,6 +31,8 @@ import java.util.ArrayList;
 public class ContributionsGalleryActivity extends AppCompatActivity {
     public static final String TAG = "ContributionsGalleryActivity";
     public static final String TAG_ORIGINAL_DOODLE = "originalDoodle";
+    // The contributions to a doodle are kept in the local datastore under this label followed by its objectId
+    public static final String PIN_LABEL = "contributions_";
 
     // Views in the layout
     private RelativeLayout contributionsGalleryRelativeLayout;
@@ -128,29 +131,34 @@ public class ContributionsGalleryActivity extends AppCompatActivity {
         finish();
     }
 
+    // Finds the doodles that were drawn on top of the current doodle
+    // The contributions shown last time are shown straight away, and then updated from the network, see CachedQuery
     private void findContributions(Doodle currentDoodle) {
         // Specify what type of data we want to query - Doodle.class
         ParseQuery<Doodle> query = ParseQuery.getQuery(Doodle.class);
         // Include doodles with the current doodle as the parent
         query.whereEqualTo(Doodle.KEY_PARENT, currentDoodle);
+        // The artists are shown too, so they're cached with the doodles
+        query.include(Doodle.KEY_ARTIST);
         // Order doodles by creation date (newest first)
         query.addDescendingOrder("createdAt");
 
-        loadingProgressDialog.show();
         // Start an asynchronous call for doodles
-        query.findInBackground((foundDoodles, e) -> {
+        CachedQuery.find(query, PIN_LABEL + currentDoodle.getObjectId(), (foundDoodles, fromCache, e) -> {
+            // Only block the screen if there is nothing to show until the network answers
+            if (fromCache && foundDoodles.isEmpty()) {
+                loadingProgressDialog.show();
+                return;
+            }
             loadingProgressDialog.dismiss();
             if (e != null) { // Query has failed
                 Snackbar.make(contributionsGalleryRelativeLayout, getResources().getString(R.string.failed_to_load_gallery), Snackbar.LENGTH_LONG).show();
-                return;
             }
             else { // Query has succeeded
-                // Clear out old items before appending in the new ones
-                doodleAdapter.clear();
-                // Save received posts to list and notify adapter of new data
-                doodleAdapter.addAll(foundDoodles);
+                // Only the doodles that changed are updated
+                doodleAdapter.setDoodles(foundDoodles);
                 // Show empty message if gallery is empty
-                if (contributions.size() == 0) noContributionsYet.setVisibility(View.VISIBLE);
+                noContributionsYet.setVisibility(contributions.size() == 0 ? View.VISIBLE : View.GONE);
             }
         });
     }
@@ -1,5 +1,6 @@
 package com.example.doodle.activities;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.fragment.app.Fragment;
@@ -8,35 +9,36 @@ import androidx.fragment.app.FragmentManager;
 import android.app.ProgressDialog;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
 
-import com.example.doodle.BitmapScaler;
+import com.example.doodle.BuildConfig;
 import com.example.doodle.R;
+import com.example.doodle.drawing.StrokeMetrics;
+import com.example.doodle.drawing.StrokeMetricsSummary;
 import com.example.doodle.fragments.CanvasFragment;
+import com.example.doodle.fragments.ColorPickerFragment;
+import com.example.doodle.imaging.BitmapPool;
+import com.example.doodle.imaging.ChainCompositor;
+import com.example.doodle.imaging.EncodedImage;
+import com.example.doodle.imaging.ImageStore;
+import com.example.doodle.imaging.SharedBitmap;
 import com.example.doodle.models.Doodle;
-import com.example.doodle.models.Player;
+import com.example.doodle.submission.DoodleSubmission;
+import com.example.doodle.submission.SubmissionOutbox;
+import com.example.doodle.submission.SubmissionPipeline;
 import com.google.android.material.snackbar.Snackbar;
-import com.parse.FunctionCallback;
-import com.parse.ParseCloud;
-import com.parse.ParseException;
-import com.parse.ParseFile;
-import com.parse.ParseQuery;
 import com.parse.ParseUser;
 
-import java.io.ByteArrayOutputStream;
-import java.util.HashMap;
-
-public class DoodleActivity extends AppCompatActivity {
+public class DoodleActivity extends AppCompatActivity implements StrokeMetrics.Listener {
     public static final String TAG = "DoodleActivity";
     public static final String TAG_PARENT_DOODLE = "parentDoodle";
+    public static final String TAG_PARENT_BITMAP_KEY = "parentBitmapKey";
 
     // Views in the layout
     private RelativeLayout doodleRelativeLayout;
@@ -44,8 +46,16 @@ public class DoodleActivity extends AppCompatActivity {
 
     // Other necessary member variables
     private ProgressDialog savingProgressDialog;
+    private ProgressDialog loadingProgressDialog;
+    private SubmissionPipeline submissionPipeline;
+    // How smoothly the current drawing has been drawn so far, see onStrokeMetrics
+    private StrokeMetricsSummary strokeMetricsSummary = new StrokeMetricsSummary();
     private FragmentManager fragmentManager;
     private Fragment canvasFragment;
+    private String parentBitmapKey;
+    // The parent, shared by the canvas and the pipeline processing the drawing, it's held from the moment it's decoded
+    // until the activity is gone, the ImageStore only hands it to the canvas
+    private SharedBitmap parentBitmap;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -60,9 +70,10 @@ public class DoodleActivity extends AppCompatActivity {
         savingProgressDialog = new ProgressDialog(DoodleActivity.this);
         fragmentManager = getSupportFragmentManager();
         Doodle parentDoodle = getIntent().getParcelableExtra(TAG_PARENT_DOODLE);
-        Bitmap parentBitmap = getBitmapFromDoodle(parentDoodle);
-        // There is no timer, so deadline is -1
-        canvasFragment = CanvasFragment.newInstance(parentBitmap, -1);
+        loadingProgressDialog = new ProgressDialog(DoodleActivity.this);
+        // A restored canvas is kept, replacing it would throw away its journal along with the drawing
+        canvasFragment = savedInstanceState == null ? null : fragmentManager.findFragmentByTag(CanvasFragment.class.getSimpleName());
+        parentBitmapKey = savedInstanceState == null ? null : savedInstanceState.getString(TAG_PARENT_BITMAP_KEY);
 
         // Set up toolbar
         toolbar.setTitleTextColor(getResources().getColor(R.color.white, getTheme()));
@@ -70,21 +81,83 @@ public class DoodleActivity extends AppCompatActivity {
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         getSupportActionBar().setDisplayShowHomeEnabled(true);
 
-        // Set up ProgressDialog
+        // Set up ProgressDialogs
         savingProgressDialog.setMessage(getResources().getString(R.string.saving_doodle));
         savingProgressDialog.setCancelable(false);
+        loadingProgressDialog.setMessage(getResources().getString(R.string.loading_doodle));
+        loadingProgressDialog.setCancelable(false);
 
         // Set up canvas fragment
-        fragmentManager.beginTransaction().replace(R.id.canvasFrameLayout, canvasFragment, CanvasFragment.class.getSimpleName()).show(canvasFragment).commit();
+        // The parent's bitmap is kept in the ImageStore, so it is only decoded again if the store has lost it
+        if (canvasFragment != null) {
+            // After the process has been restarted it is read back from disk off the main thread
+            if (parentBitmapKey != null) ImageStore.get().load(parentBitmapKey, bitmap -> {
+                if (bitmap != null) parentBitmap = new SharedBitmap(bitmap);
+                else getBitmapFromDoodle(parentDoodle, decodedBitmap -> {
+                    ImageStore.get().put(parentBitmapKey, decodedBitmap);
+                    parentBitmap = new SharedBitmap(decodedBitmap);
+                });
+            });
+        }
+        else if (parentDoodle == null) {
+            showCanvas();
+        }
+        // The canvas only starts once its parent is ready, so the drawing never goes on without it
+        else {
+            loadingProgressDialog.show();
+            getBitmapFromDoodle(parentDoodle, bitmap -> {
+                loadingProgressDialog.dismiss();
+                parentBitmap = new SharedBitmap(bitmap);
+                parentBitmapKey = ImageStore.get().put(bitmap);
+                showCanvas();
+            });
+        }
 
         // Listen for result from fragment
         fragmentManager.setFragmentResultListener(CanvasFragment.TAG_RESULT_DOODLE, this, (requestKey, bundle) -> {
-            Bitmap drawingBitmap = bundle.getParcelable(CanvasFragment.TAG_DRAWING_BITMAP);
-            drawingBitmap = makeTransparent(drawingBitmap, Color.WHITE);
-            saveDoodle(parentDoodle, parentBitmap, drawingBitmap);
+            // The submission takes over the drawing, so it leaves the store, the parent stays on screen in case it fails
+            // The drawing is only read back from disk if the result was saved with the activity's state
+            ImageStore.get().take(bundle.getString(CanvasFragment.TAG_DRAWING_BITMAP), drawingBitmap -> {
+                if (drawingBitmap == null) {
+                    Snackbar.make(doodleRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
+                    return;
+                }
+                byte[] drawingStrokes = bundle.getByteArray(CanvasFragment.TAG_DRAWING_STROKES);
+                Rect drawingBounds = bundle.getParcelable(CanvasFragment.TAG_DRAWING_BOUNDS);
+                // A drawing saved without the parent it was drawn over would erase everything drawn before it
+                boolean isLayer = parentDoodle != null && getResources().getBoolean(R.bool.store_layers_only);
+                if (parentDoodle != null && !isLayer && parentBitmap == null) {
+                    Snackbar.make(doodleRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
+                    BitmapPool.get().put(drawingBitmap);
+                    return;
+                }
+                saveDoodle(parentDoodle, parentBitmap, drawingBitmap, drawingStrokes, drawingBounds);
+            });
         });
     }
 
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        outState.putString(TAG_PARENT_BITMAP_KEY, parentBitmapKey);
+        ImageStore.get().persist(parentBitmapKey);
+    }
+
+    @Override
+    protected void onDestroy() {
+        loadingProgressDialog.dismiss();
+        // Only abandon a submission if the user is actually leaving, not if the activity is being recreated
+        if (isFinishing() && submissionPipeline != null) submissionPipeline.cancel();
+        if (isFinishing()) ImageStore.get().remove(parentBitmapKey);
+        if (isFinishing()) reportStrokeMetrics();
+
+        super.onDestroy();
+
+        // The canvas's view is gone now, so only a pipeline still reading the parent holds on to it
+        if (isFinishing() && parentBitmap != null) parentBitmap.release();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -121,173 +194,80 @@ public class DoodleActivity extends AppCompatActivity {
         finish();
     }
 
-    // Convert transparentColor to be transparent in a Bitmap
-    public static Bitmap makeTransparent(Bitmap bitmap, int transparentColor) {
-        int width =  bitmap.getWidth();
-        int height = bitmap.getHeight();
-        Bitmap transparentBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        int [] allPixels = new int [transparentBitmap.getHeight() * transparentBitmap.getWidth()];
-        bitmap.getPixels(allPixels, 0, transparentBitmap.getWidth(), 0, 0, transparentBitmap.getWidth(),transparentBitmap.getHeight());
-        transparentBitmap.setPixels(allPixels, 0, width, 0, 0, width, height);
-
-        for (int i = 0; i < transparentBitmap.getHeight() * transparentBitmap.getWidth(); i++){
-            if (allPixels[i] == transparentColor) {
-                allPixels[i] = Color.alpha(Color.TRANSPARENT);
-            }
-        }
-
-        transparentBitmap.setPixels(allPixels, 0, transparentBitmap.getWidth(), 0, 0, transparentBitmap.getWidth(), transparentBitmap.getHeight());
-        return transparentBitmap;
+    // There is no timer, so deadline is -1
+    private void showCanvas() {
+        canvasFragment = CanvasFragment.newInstance(parentBitmapKey, -1);
+        // The parent may have been decoded after the activity's state was saved, a canvas lost with it is made again
+        // when the activity is restored, since the saved state has no canvas
+        fragmentManager.beginTransaction().replace(R.id.canvasFrameLayout, canvasFragment, CanvasFragment.class.getSimpleName()).show(canvasFragment).commitAllowingStateLoss();
     }
 
-    // Takes the image from a Doodle and converts it to a bitmap
-    private Bitmap getBitmapFromDoodle(Doodle doodle) {
-        if (doodle == null) return null;
-        else {
-            try {
-                byte[] bitmapData = doodle.getImage().getData();
-                Bitmap bitmap = BitmapFactory.decodeByteArray(bitmapData, 0, bitmapData.length);
-                return bitmap;
-            } catch (ParseException e) {
-                Snackbar.make(doodleRelativeLayout, getResources().getString(R.string.error_finding_doodle), Snackbar.LENGTH_LONG).show();
-                return null;
+    // Takes the image from a Doodle and converts it to a bitmap the size of the canvas it will be drawn on
+    // Fetching the chain and its images blocks, so it's done in the background, and the callback is only made if the
+    // bitmap is ready and the activity is still there
+    private void getBitmapFromDoodle(Doodle doodle, ImageStore.Callback callback) {
+        int canvasSize = getResources().getDimensionPixelSize(R.dimen.canvas_size);
+        // A layer-only doodle's image is missing everything drawn before it, which the compositor draws it over
+        ChainCompositor.compositeInBackground(doodle, canvasSize, (bitmap, e) -> {
+            if (isDestroyed()) {
+                if (bitmap != null) BitmapPool.get().put(bitmap);
+                return;
             }
-        }
-    }
-
-    // Saves the current doodle to the database
-    private void saveDoodle(Doodle parentDoodle, Bitmap parentBitmap, Bitmap drawingBitmap) {
-        Doodle childDoodle = new Doodle();
-
-        // The artist is the current artist
-        childDoodle.setArtist(ParseUser.getCurrentUser());
-        // The image is the file that was passed in
-        ParseFile drawingFile = combineBitmapsToParseFile(drawingBitmap, parentBitmap);
-        childDoodle.setImage(drawingFile);
-        // The parent is the doodle that was passed in via intent
-        // If it has no parent, just don't set it and let it default to the default defined in the database
-        if (parentDoodle != null) childDoodle.setParent(parentDoodle);
-        // The tail length is just one longer than it's parent
-        // If it doesn't have a parent, don't set it and it will default to 1 as defined in the database
-        if (parentDoodle != null) childDoodle.setTailLength(parentDoodle.getTailLength() + 1);
-        // The root is the same as its parent
-        // If it has no parent, its root is equal to its objectId, which will be set after it is saved
-        if (parentDoodle != null) childDoodle.setRoot(parentDoodle.getRoot());
-
-        savingProgressDialog.show();
-        // Save doodle to database
-        childDoodle.saveInBackground(e -> {
-            if (e != null) { // Save has failed
-                savingProgressDialog.dismiss();
-                Snackbar.make(doodleRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
-            }
-            else { // Save has succeeded
-                // Now if it has no parent, set its root equal to its objectId
-                if (parentDoodle == null) setRootToObjectId();
-                else addToUserRootsContributedTo(parentDoodle.getRoot());
-
-                // Handle push notification to the artist of the parent doodle
-                if (parentDoodle != null) {
-                    try {
-                        Player player = new Player(parentDoodle.getArtist().fetchIfNeeded());
-                        // If the artist has enabled notifications, send them notification
-                        if (player.getGetsNotifications()) {
-                            handlePushNotification(parentDoodle.getArtist());
-                        }
-                    } catch (ParseException e1) {
-                        Snackbar.make(doodleRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
-                        e1.printStackTrace();
-                    }
-                }
-            }
-        });
-    }
-
-    // Sends push notification to the artist of the parent doodle
-    private void handlePushNotification(ParseUser user) {
-        final HashMap<String, Object> params = new HashMap<>();
-        params.put("user", user.getObjectId());
-        // Calling the cloud code function
-        ParseCloud.callFunctionInBackground("doodlenotification", params, new FunctionCallback<Object>() {
-            @Override
-            public void done(Object response, ParseException e) {
-                if(e == null) { // Function call succeeded
-                }
-                else { // Function call failed
-                    e.printStackTrace();
-                }
-            }
-        });
-    }
-
-    // Sets the root of a doodle to its objectId
-    private void setRootToObjectId() {
-        // Specify what type of data we want to query - Doodle.class
-        ParseQuery<Doodle> query = ParseQuery.getQuery(Doodle.class);
-        // The doodle we want to change the root of is distinguished by having a null root
-        query.whereEqualTo(Doodle.KEY_ROOT, null);
-        // Find only doodles by the current user
-        query.whereEqualTo(Doodle.KEY_ARTIST, ParseUser.getCurrentUser());
-        // Start an asynchronous call for the doodle
-        query.getFirstInBackground((doodle, e) -> {
-            if (e != null) { // Query has failed
-                savingProgressDialog.dismiss();
-                Snackbar.make(doodleRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
-            }
-            else { // Query has succeeded
-                String root = doodle.getObjectId();
-                doodle.setRoot(root);
-                doodle.saveInBackground(e1 -> {
-                    if (e1 != null) { // Save has failed
-                        savingProgressDialog.dismiss();
-                        Snackbar.make(doodleRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
-                    }
-                    else { // Save has succeeded
-                        addToUserRootsContributedTo(root);
-                    }
-                });
+            // There is nothing to draw over, so the user goes back to pick the doodle again
+            if (e != null) {
+                Log.e(TAG, "Couldn't composite " + doodle.getObjectId(), e);
+                loadingProgressDialog.dismiss();
+                Toast.makeText(this, getResources().getString(R.string.error_finding_doodle), Toast.LENGTH_SHORT).show();
+                finish();
+                return;
             }
+            callback.done(bitmap);
         });
     }
 
-    // Adds the given root to the current user's list of roots contributed to
-    private void addToUserRootsContributedTo (String root) {
-        Player player = new Player(ParseUser.getCurrentUser());
-        player.addRootContributedTo(root);
-        player.saveInBackground(e -> {
+    // Processes the drawing in the background, then hands the current doodle to the outbox to be saved
+    private void saveDoodle(Doodle parentDoodle, SharedBitmap parentBitmap, Bitmap drawingBitmap, byte[] drawingStrokes, Rect drawingBounds) {
+        savingProgressDialog.show();
+        int[] palette = ColorPickerFragment.getPalette(this);
+        // When only layers are stored, the drawing is uploaded without its parent, so the pipeline doesn't need it
+        boolean isLayer = parentDoodle != null && getResources().getBoolean(R.bool.store_layers_only);
+        // A layer doesn't have to cover the whole canvas, so only the part that was drawn on is kept
+        Rect cropBounds = isLayer ? drawingBounds : null;
+        int canvasWidth = drawingBitmap.getWidth();
+        int canvasHeight = drawingBitmap.getHeight();
+        submissionPipeline = new SubmissionPipeline(drawingBitmap, isLayer ? null : parentBitmap, cropBounds, palette, (drawingImage, e) -> {
+            submissionPipeline = null;
             savingProgressDialog.dismiss();
-            if (e != null) { // Save has failed
+            if (e != null) { // Processing the image has failed
                 Snackbar.make(doodleRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
             }
-            else { // Save has succeeded
-                Toast.makeText(this, getResources().getString(R.string.doodle_submitted), Toast.LENGTH_SHORT).show();
-                goHomeActivity();
+            else { // The image is ready
+                saveDoodle(parentDoodle, drawingImage, drawingStrokes, isLayer, cropBounds, canvasWidth, canvasHeight);
             }
-        });
-    }
-
-    // Layers drawingBitmap on top of parentBitmap and returns the result as a ParseFile
-    private ParseFile combineBitmapsToParseFile(Bitmap drawingBitmap, Bitmap parentBitmap) {
-        // If it has no parent, there is nothing to overlay it with
-        if (parentBitmap == null) return saveBitmapToParseFile(drawingBitmap);
-
-        Bitmap bmOverlay = Bitmap.createBitmap(drawingBitmap.getWidth(), drawingBitmap.getHeight(), drawingBitmap.getConfig());
-        Canvas canvas = new Canvas(bmOverlay);
-        canvas.drawBitmap(BitmapScaler.scaleToFitWidth(parentBitmap, drawingBitmap.getWidth()), new Matrix(), null);
-        canvas.drawBitmap(drawingBitmap, 0, 0, null);
-        return saveBitmapToParseFile(bmOverlay);
+        }, percentDone -> savingProgressDialog.setMessage(getResources().getString(R.string.saving_doodle) + " " + percentDone + "%"));
+        submissionPipeline.start();
     }
 
-    // Converts a bitmap to a ParseFile
-    private ParseFile saveBitmapToParseFile(Bitmap bitmap) {
-        String fileName = "doodle" + System.currentTimeMillis() + ".png";
-        // Configure byte output stream
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        // Compress the image
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, bytes);
-        // Save to ParseFile
-        ParseFile parseFile = new ParseFile(fileName, bytes.toByteArray());
-        return parseFile;
+    // Saves the current doodle to the database
+    // cropBounds is the part of the canvas the image was cut from, null if it covers all of it
+    // The doodle is uploaded and saved by the SubmissionOutbox, which keeps retrying if the network is bad, so the user
+    // is sent home right away
+    private void saveDoodle(Doodle parentDoodle, EncodedImage drawingImage, byte[] drawingStrokes, boolean isLayer,
+                            Rect cropBounds, int canvasWidth, int canvasHeight) {
+        DoodleSubmission submission = new DoodleSubmission(drawingImage.getCodec().getName());
+        // The strokes are only the ones this artist added, not the whole image
+        submission.setStrokes(drawingStrokes);
+        if (isLayer) submission.setIsLayer(true);
+        if (cropBounds != null) submission.setCrop(cropBounds, canvasWidth, canvasHeight);
+        // The parent is the doodle that was passed in via intent
+        // If it has no parent, it becomes the root of a new chain
+        if (parentDoodle != null) submission.setParent(parentDoodle);
+        // The artist of the parent is notified if they have enabled notifications
+        submission.setNotifyParentArtist(true);
+
+        SubmissionOutbox.get().add(submission, drawingImage);
+        Toast.makeText(this, getResources().getString(R.string.doodle_submitted), Toast.LENGTH_SHORT).show();
+        goHomeActivity();
     }
 
     // Starts an intent to go to the home activity
@@ -327,4 +307,17 @@ public class DoodleActivity extends AppCompatActivity {
             }
         });
     }
-}
\ No newline at end of file
+
+    // Adds up how smoothly each stroke on the canvas was drawn, so slow devices and large canvases show up in logcat
+    // once per drawing, see reportStrokeMetrics, debug builds also log every stroke
+    @Override
+    public void onStrokeMetrics(StrokeMetrics metrics) {
+        if (BuildConfig.DEBUG) Log.d(TAG, "Stroke metrics: " + metrics);
+        strokeMetricsSummary.add(metrics);
+    }
+
+    private void reportStrokeMetrics() {
+        if (!strokeMetricsSummary.isEmpty()) Log.i(TAG, "Drawing metrics: " + strokeMetricsSummary);
+        strokeMetricsSummary = new StrokeMetricsSummary();
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.doodle.activities;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.GridLayoutManager;
@@ -17,6 +18,8 @@ import android.widget.TextView;
 import com.example.doodle.R;
 import com.example.doodle.adapters.DoodleAdapter;
 import com.example.doodle.models.Doodle;
+import com.example.doodle.sync.CachedQuery;
+import com.example.doodle.sync.KeysetPager;
 import com.google.android.material.snackbar.Snackbar;
 import com.parse.ParseQuery;
 import com.parse.ParseUser;
@@ -25,6 +28,12 @@ import java.util.ArrayList;
 
 public class GalleryActivity extends AppCompatActivity {
     public static final String TAG = "GalleryActivity";
+    // The user's doodles are kept in the local datastore under this label followed by their objectId
+    public static final String PIN_LABEL = "gallery_";
+    // Doodles are loaded a page at a time as the gallery is scrolled, see KeysetPager
+    public static final int PAGE_SIZE = 24;
+    // The next page is loaded once the last visible doodle is this close to the end, so it's there before it's needed
+    public static final int PREFETCH_DISTANCE = 12;
 
     // Views in the layout
     private RelativeLayout galleryRelativeLayout;
@@ -36,6 +45,11 @@ public class GalleryActivity extends AppCompatActivity {
     private ArrayList<Doodle> doodles;
     private DoodleAdapter doodleAdapter;
     private ProgressDialog loadingProgressDialog;
+    private KeysetPager<Doodle> pager;
+    private boolean loadingPage;
+    private boolean loadedLastPage;
+    // A page that failed to load is only asked for again once the user taps retry, not on every scroll
+    private boolean nextPageFailed;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -52,6 +66,13 @@ public class GalleryActivity extends AppCompatActivity {
         doodles = new ArrayList<>();
         doodleAdapter = new DoodleAdapter(this, doodles, false, false, true);
         loadingProgressDialog = new ProgressDialog(GalleryActivity.this);
+        pager = new KeysetPager<>(() -> {
+            // Specify what type of data we want to query - Doodle.class
+            ParseQuery<Doodle> query = ParseQuery.getQuery(Doodle.class);
+            // Include only doodles by the current user
+            query.whereEqualTo(Doodle.KEY_ARTIST, ParseUser.getCurrentUser());
+            return query;
+        }, PAGE_SIZE);
 
         // Set up toolbar
         toolbar.setTitleTextColor(getResources().getColor(R.color.white, getTheme()));
@@ -67,6 +88,13 @@ public class GalleryActivity extends AppCompatActivity {
         galleryRecyclerView.setLayoutManager(gridLayoutManager);
         // Set adapter
         galleryRecyclerView.setAdapter(doodleAdapter);
+        // Load more doodles as the end of the gallery comes into view
+        galleryRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                findNextPageIfNearEnd();
+            }
+        });
 
         // Set up ProgressDialog
         loadingProgressDialog.setMessage(getResources().getString(R.string.loading_gallery));
@@ -109,30 +137,58 @@ public class GalleryActivity extends AppCompatActivity {
         finish();
     }
 
-    // Finds all the doodles created by the current user
+    // Finds the newest doodles created by the current user, the rest are loaded as the gallery is scrolled
+    // The doodles shown last time are shown straight away, and then updated from the network, see CachedQuery
     private void findDoodlesByCurrentUser() {
-        // Specify what type of data we want to query - Doodle.class
-        ParseQuery<Doodle> query = ParseQuery.getQuery(Doodle.class);
-        // Include only doodles by the current user
-        query.whereEqualTo(Doodle.KEY_ARTIST, ParseUser.getCurrentUser());
-        // Order doodles by creation date (newest first)
-        query.addDescendingOrder("createdAt");
-
-        loadingProgressDialog.show();
+        // No more pages are loaded until the first one has come from the network, the cached one may be out of date
+        loadingPage = true;
         // Start an asynchronous call for doodles
-        query.findInBackground((foundDoodles, e) -> {
+        CachedQuery.find(pager.firstPage(), PIN_LABEL + ParseUser.getCurrentUser().getObjectId(), (foundDoodles, fromCache, e) -> {
+            // Only block the screen if there is nothing to show until the network answers
+            if (fromCache && foundDoodles.isEmpty()) {
+                loadingProgressDialog.show();
+                return;
+            }
             loadingProgressDialog.dismiss();
+            if (!fromCache) loadingPage = false;
             if (e != null) { // Query has failed
                 Snackbar.make(galleryRelativeLayout, getResources().getString(R.string.failed_to_load_gallery), Snackbar.LENGTH_LONG).show();
-                return;
             }
             else { // Query has succeeded
-                // Clear out old items before appending in the new ones
-                doodleAdapter.clear();
-                // Save received posts to list and notify adapter of new data
-                doodleAdapter.addAll(foundDoodles);
+                // Only the doodles that changed are updated
+                doodleAdapter.setDoodles(foundDoodles);
+                if (!fromCache) loadedLastPage = pager.isLastPage(foundDoodles.size());
                 // Show empty message if gallery is empty
-                if (doodles.size() == 0) nothingHereYet.setVisibility(View.VISIBLE);
+                nothingHereYet.setVisibility(doodles.size() == 0 ? View.VISIBLE : View.GONE);
+                // A page may not fill the screen, in which case there's nothing to scroll to load the next one
+                if (!fromCache) galleryRecyclerView.post(this::findNextPageIfNearEnd);
+            }
+        });
+    }
+
+    private void findNextPageIfNearEnd() {
+        GridLayoutManager gridLayoutManager = (GridLayoutManager) galleryRecyclerView.getLayoutManager();
+        if (gridLayoutManager.findLastVisibleItemPosition() >= doodles.size() - PREFETCH_DISTANCE) findNextPage();
+    }
+
+    // Finds the page of doodles after the last one in the gallery and adds it to the end
+    private void findNextPage() {
+        if (loadingPage || loadedLastPage || nextPageFailed || doodles.isEmpty()) return;
+        loadingPage = true;
+        pager.pageAfter(doodles.get(doodles.size() - 1)).findInBackground((foundDoodles, e) -> {
+            loadingPage = false;
+            if (e != null) { // Query has failed
+                nextPageFailed = true;
+                Snackbar.make(galleryRelativeLayout, getResources().getString(R.string.failed_to_load_more_doodles), Snackbar.LENGTH_INDEFINITE)
+                        .setAction(getResources().getString(R.string.retry), v -> {
+                            nextPageFailed = false;
+                            findNextPage();
+                        })
+                        .show();
+            }
+            else { // Query has succeeded
+                loadedLastPage = pager.isLastPage(foundDoodles.size());
+                doodleAdapter.addAll(foundDoodles);
             }
         });
     }
@@ -10,10 +10,7 @@ import androidx.fragment.app.FragmentManager;
 import android.app.ProgressDialog;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -25,27 +22,44 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.example.doodle.BitmapScaler;
+import com.example.doodle.BuildConfig;
 import com.example.doodle.R;
+import com.example.doodle.drawing.Stroke;
+import com.example.doodle.drawing.StrokeCodec;
+import com.example.doodle.drawing.StrokeMetrics;
+import com.example.doodle.drawing.StrokeMetricsSummary;
 import com.example.doodle.fragments.CanvasFragment;
+import com.example.doodle.fragments.ColorPickerFragment;
+import com.example.doodle.imaging.BitmapPool;
+import com.example.doodle.imaging.EncodedImage;
+import com.example.doodle.imaging.ImageStore;
+import com.example.doodle.imaging.SharedBitmap;
 import com.example.doodle.models.Doodle;
 import com.example.doodle.models.Game;
-import com.example.doodle.models.Player;
+import com.example.doodle.submission.DoodleSubmission;
+import com.example.doodle.submission.SubmissionOutbox;
+import com.example.doodle.submission.SubmissionPipeline;
+import com.example.doodle.sync.GameListener;
+import com.example.doodle.sync.GameSync;
+import com.example.doodle.sync.ParentPrefetcher;
 import com.google.android.material.color.MaterialColors;
 import com.google.android.material.snackbar.Snackbar;
-import com.parse.ParseException;
-import com.parse.ParseFile;
-import com.parse.ParseQuery;
 import com.parse.ParseUser;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-public class GameActivity extends AppCompatActivity {
+public class GameActivity extends AppCompatActivity implements StrokeMetrics.Listener, GameListener {
     public static final String TAG = "DoodleActivity";
     public static final long ONE_SECOND = TimeUnit.SECONDS.toMillis(1);
+    public static final String TAG_PARENT_BITMAP_KEY = "parentBitmapKey";
+    public static final String TAG_PARENT_DOODLE = "parentDoodle";
+    public static final String TAG_ROUND = "round";
+    public static final String TAG_TIME_CUR_ROUND_ENDS = "timeCurRoundEnds";
 
     // Views in the layout
     private RelativeLayout gameRelativeLayout;
@@ -58,13 +72,26 @@ public class GameActivity extends AppCompatActivity {
     private Game game;
     private long timeCurRoundEnds;
     private ProgressDialog savingProgressDialog;
+    private SubmissionPipeline submissionPipeline;
+    // Started from the drawing shortly before the deadline, see CanvasFragment.TAG_SPECULATIVE_DOODLE
+    private SubmissionPipeline speculativePipeline;
+    // How smoothly the current drawing has been drawn so far, see onStrokeMetrics
+    private StrokeMetricsSummary strokeMetricsSummary = new StrokeMetricsSummary();
     private FragmentManager fragmentManager;
     private Fragment canvasFragment;
     private int indexInPlayerList;
     private int numPlayers;
     private int round;
     private Doodle parentDoodle;
-    private Handler updateHandler;
+    private String parentBitmapKey;
+    // The current round's parent, shared by the canvas and the pipelines processing the drawing, it's held from the start
+    // of the round until its canvas's view is gone, the ImageStore only hands it to the canvas
+    private SharedBitmap parentBitmap;
+    // Parents of rounds that have ended, by the canvas that still shows them until its view is destroyed
+    private final Map<Fragment, SharedBitmap> retiredParentBitmaps = new HashMap<>();
+    private GameSync gameSync;
+    // Fetches the next round's doodle while the player waits, see endCurrentRound
+    private ParentPrefetcher parentPrefetcher;
     private Handler timeHandler;
 
     @Override
@@ -82,16 +109,30 @@ public class GameActivity extends AppCompatActivity {
         // Initialize other member variables
         // Unwrap the game that was passed in by the intent
         game = getIntent().getParcelableExtra(GameModeActivity.TAG_GAME);
-        timeCurRoundEnds = game.getUpdatedAt().getTime() + (game.getTimeLimit() * 1000);
+        // The game in the intent is the one the first round started with, so a recreated activity carries on with the
+        // round it was in, and submits to it even before the game has been fetched again
+        if (savedInstanceState == null) timeCurRoundEnds = game.getUpdatedAt().getTime() + (game.getTimeLimit() * 1000);
+        else timeCurRoundEnds = savedInstanceState.getLong(TAG_TIME_CUR_ROUND_ENDS);
         savingProgressDialog = new ProgressDialog(GameActivity.this);
         fragmentManager = getSupportFragmentManager();
         if (savedInstanceState == null) canvasFragment = CanvasFragment.newInstance(null, timeCurRoundEnds);
         else canvasFragment = fragmentManager.findFragmentByTag(CanvasFragment.class.getSimpleName());
         indexInPlayerList = 0;
         numPlayers = game.getPlayers().size();
-        round = 1;
-        parentDoodle = null;
-        updateHandler = new Handler(Looper.getMainLooper());
+        round = savedInstanceState == null ? 1 : savedInstanceState.getInt(TAG_ROUND, 1);
+        parentDoodle = savedInstanceState == null ? null : savedInstanceState.getParcelable(TAG_PARENT_DOODLE);
+        // The parent's bitmap outlives the activity in the ImageStore
+        parentBitmapKey = savedInstanceState == null ? null : savedInstanceState.getString(TAG_PARENT_BITMAP_KEY);
+        // After the process has been restarted it is read back from disk off the main thread
+        if (parentBitmapKey != null) {
+            String restoredKey = parentBitmapKey;
+            ImageStore.get().load(restoredKey, bitmap -> {
+                // The round may have ended while it was being read
+                if (bitmap != null && restoredKey.equals(parentBitmapKey) && parentBitmap == null) parentBitmap = new SharedBitmap(bitmap);
+            });
+        }
+        gameSync = new GameSync(game, this);
+        gameSync.setRoundDeadline(timeCurRoundEnds);
         timeHandler = new Handler(Looper.getMainLooper());
 
         // Set up toolbar
@@ -101,7 +142,7 @@ public class GameActivity extends AppCompatActivity {
         getSupportActionBar().setDisplayShowHomeEnabled(true);
 
         // Set up round text view
-        roundTextView.setText(getResources().getString(R.string.round) + " " + game.getRound() + "/" + numPlayers);
+        roundTextView.setText(getResources().getString(R.string.round) + " " + round + "/" + numPlayers);
 
         // Set up time text view
         long timeLeftInRoundMillis = timeCurRoundEnds - System.currentTimeMillis();
@@ -112,8 +153,20 @@ public class GameActivity extends AppCompatActivity {
         savingProgressDialog.setMessage(getResources().getString(R.string.saving_doodle));
         savingProgressDialog.setCancelable(false);
 
-        // Set up canvas fragment
-        fragmentManager.beginTransaction().replace(R.id.canvasFrameLayout_GAME, canvasFragment, CanvasFragment.class.getSimpleName()).show(canvasFragment).commit();
+        // A round's parent can only be reused once the canvas that showed it is gone
+        fragmentManager.registerFragmentLifecycleCallbacks(retiredCanvasCallbacks, false);
+
+        // Set up canvas fragment, a restored one is already back in place, and there is none between rounds
+        if (savedInstanceState == null) {
+            fragmentManager.beginTransaction().replace(R.id.canvasFrameLayout_GAME, canvasFragment, CanvasFragment.class.getSimpleName()).show(canvasFragment).commit();
+        }
+        else if (canvasFragment == null) {
+            // The player had already submitted and was waiting for the others
+            timeCurRoundEnds = -1;
+            gameSync.setRoundDeadline(-1);
+            timeTextView.setText("");
+            waitingForOtherPlayers.setVisibility(View.VISIBLE);
+        }
 
         // Set up numPlayer
         String curPlayer = ParseUser.getCurrentUser().getObjectId();
@@ -123,15 +176,54 @@ public class GameActivity extends AppCompatActivity {
             indexInPlayerList++;
         }
 
+        // Start processing the drawing early, the parent is still on screen so it's only borrowed from the store
+        fragmentManager.setFragmentResultListener(CanvasFragment.TAG_SPECULATIVE_DOODLE, this, (requestKey, bundle) -> {
+            if (speculativePipeline != null) speculativePipeline.cancel();
+            Bitmap drawingBitmap = ImageStore.get().take(bundle.getString(CanvasFragment.TAG_DRAWING_BITMAP));
+            Rect drawingBounds = bundle.getParcelable(CanvasFragment.TAG_DRAWING_BOUNDS);
+            boolean isLayer = isLayer(parentDoodle);
+            // Without its parent the drawing is processed from scratch at the deadline, which fails it then
+            if (isParentMissing(parentDoodle)) {
+                speculativePipeline = null;
+                BitmapPool.get().put(drawingBitmap);
+                return;
+            }
+            speculativePipeline = SubmissionPipeline.speculate(drawingBitmap, isLayer ? null : parentBitmap, isLayer ? drawingBounds : null, ColorPickerFragment.getPalette(this));
+        });
+
         // Listen for result from fragment
         fragmentManager.setFragmentResultListener(CanvasFragment.TAG_RESULT_DOODLE, this, (requestKey, bundle) -> {
             timeHandler.removeCallbacksAndMessages(null);
 
-            Bitmap drawingBitmap = bundle.getParcelable(CanvasFragment.TAG_DRAWING_BITMAP);
-            drawingBitmap = makeTransparent(drawingBitmap, Color.WHITE);
-            Bitmap parentBitmap = getBitmapFromDoodle(parentDoodle);
-            saveDoodle(parentDoodle, parentBitmap, drawingBitmap);
-            endCurrentRound();
+            // The submission takes over the drawing, so it leaves the store, the parent stays on screen until the round ends
+            // The drawing is only read back from disk if the result was saved with the activity's state
+            ImageStore.get().take(bundle.getString(CanvasFragment.TAG_DRAWING_BITMAP), drawingBitmap -> {
+                if (drawingBitmap == null) {
+                    Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
+                    endCurrentRound();
+                    return;
+                }
+                byte[] drawingStrokes = bundle.getByteArray(CanvasFragment.TAG_DRAWING_STROKES);
+                Rect drawingBounds = bundle.getParcelable(CanvasFragment.TAG_DRAWING_BOUNDS);
+                byte[] newStrokes = bundle.getByteArray(CanvasFragment.TAG_DRAWING_NEW_STROKES);
+                // If the drawing only gained strokes since the speculative one, they're drawn onto what was already processed
+                if (newStrokes != null && saveSpeculativeDoodle(parentDoodle, drawingBitmap, drawingStrokes, drawingBounds, newStrokes)) {
+                    BitmapPool.get().put(drawingBitmap);
+                }
+                else {
+                    if (speculativePipeline != null) speculativePipeline.cancel();
+                    speculativePipeline = null;
+                    // The parent was already decoded when the round started, a drawing without it would erase the chain
+                    if (isParentMissing(parentDoodle)) {
+                        Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
+                        BitmapPool.get().put(drawingBitmap);
+                    }
+                    else {
+                        saveDoodle(parentDoodle, parentBitmap, drawingBitmap, drawingStrokes, drawingBounds);
+                    }
+                }
+                endCurrentRound();
+            });
         });
     }
 
@@ -139,15 +231,15 @@ public class GameActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
 
-        // Only start checking for new messages when the app becomes active in foreground
-        updateHandler.postDelayed(updateGame, WaitingRoomActivity.POLL_INTERVAL);
+        // Only start checking for changes to the game when the app becomes active in foreground
+        gameSync.start();
         timeHandler.postDelayed(updateTime, ONE_SECOND);
     }
 
     @Override
     protected void onPause() {
-        // Stop background task from refreshing messages, to avoid unnecessary traffic & battery drain
-        updateHandler.removeCallbacksAndMessages(null);
+        // Stop background task from refreshing the game, to avoid unnecessary traffic & battery drain
+        gameSync.stop();
         timeHandler.removeCallbacksAndMessages(null);
 
         super.onPause();
@@ -155,11 +247,45 @@ public class GameActivity extends AppCompatActivity {
 
     @Override
     protected void onDestroy() {
-        // Stop background task from refreshing messages, to avoid unnecessary traffic & battery drain
-        updateHandler.removeCallbacksAndMessages(null);
+        // Stop background task from refreshing the game, to avoid unnecessary traffic & battery drain
+        gameSync.stop();
         timeHandler.removeCallbacksAndMessages(null);
+        // Only abandon a submission if the player is actually leaving, not if the activity is being recreated
+        if (isFinishing() && submissionPipeline != null) submissionPipeline.cancel();
+        // A speculative submission belongs to a canvas that is going away either way
+        if (speculativePipeline != null) speculativePipeline.cancel();
+        if (parentPrefetcher != null) parentPrefetcher.cancel();
+        if (isFinishing()) ImageStore.get().remove(parentBitmapKey);
+        if (isFinishing()) reportStrokeMetrics();
 
         super.onDestroy();
+
+        // The canvases' views are gone now, so only the pipelines still reading the parents hold on to them
+        if (isFinishing()) {
+            if (parentBitmap != null) parentBitmap.release();
+            parentBitmap = null;
+            for (SharedBitmap retiredParentBitmap : retiredParentBitmaps.values()) retiredParentBitmap.release();
+            retiredParentBitmaps.clear();
+        }
+    }
+
+    private final FragmentManager.FragmentLifecycleCallbacks retiredCanvasCallbacks = new FragmentManager.FragmentLifecycleCallbacks() {
+        @Override
+        public void onFragmentViewDestroyed(@NonNull FragmentManager fm, @NonNull Fragment f) {
+            SharedBitmap retiredParentBitmap = retiredParentBitmaps.remove(f);
+            if (retiredParentBitmap != null) retiredParentBitmap.release();
+        }
+    };
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        outState.putString(TAG_PARENT_BITMAP_KEY, parentBitmapKey);
+        ImageStore.get().persist(parentBitmapKey);
+        outState.putInt(TAG_ROUND, round);
+        outState.putParcelable(TAG_PARENT_DOODLE, parentDoodle);
+        outState.putLong(TAG_TIME_CUR_ROUND_ENDS, timeCurRoundEnds);
     }
 
     @Override
@@ -208,40 +334,58 @@ public class GameActivity extends AppCompatActivity {
         });
     }
 
-    private Runnable updateGame = new Runnable() {
-        @Override
-        public void run() {
-            try {
-                game.fetch();
-
-                // Account for if any player has left the game
-                int diff = numPlayers - game.getPlayers().size();
-                if (diff > 0) {
-                    numPlayers -= diff;
-                    if (diff == 1) Snackbar.make(gameRelativeLayout, getResources().getString(R.string.player_has_left_the_game), Snackbar.LENGTH_LONG).show();
-                    else Snackbar.make(gameRelativeLayout, diff + " " + getResources().getString(R.string.players_have_left_the_game), Snackbar.LENGTH_LONG).show();
-                    // Only change the denominator if the player is not on the last round (just so it doesn't say something nonsensical like Round 2/1)
-                    if (game.getRound() <= numPlayers) {
-                        roundTextView.setText(getResources().getString(R.string.round) + " " + game.getRound() + "/" +  + numPlayers);
-                    }
-                }
+    // The changes to the game are fetched by the GameSync, see onResume
+    @Override
+    public void onGameUpdated(Game updatedGame) {
+        game = updatedGame;
+        // The next doodle is only looked for once the game shows it has been submitted
+        if (parentPrefetcher != null) parentPrefetcher.onGameUpdated(updatedGame);
+    }
 
-                if (game.getRound() > round) {
-                    round = game.getRound();
-                    // End the game if all rounds are finished
-                    if (round > numPlayers) {
-                        goGameGalleryActivity();
-                        finish();
-                    }
-                    // Else, start next round
-                    queryForNextDoodle();
-                }
-                updateHandler.postDelayed(this, WaitingRoomActivity.POLL_INTERVAL);
-            } catch (ParseException e) {
-                Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_updating_game), Snackbar.LENGTH_LONG).show();
+    @Override
+    public void onPlayersChanged(List<ParseUser> players) {
+        // Account for if any player has left the game
+        int diff = numPlayers - players.size();
+        if (diff > 0) {
+            numPlayers -= diff;
+            if (diff == 1) Snackbar.make(gameRelativeLayout, getResources().getString(R.string.player_has_left_the_game), Snackbar.LENGTH_LONG).show();
+            else Snackbar.make(gameRelativeLayout, diff + " " + getResources().getString(R.string.players_have_left_the_game), Snackbar.LENGTH_LONG).show();
+            // The next player in line may have changed, so the next doodle is looked up again when the round starts
+            if (parentPrefetcher != null) parentPrefetcher.cancel();
+            parentPrefetcher = null;
+            // Only change the denominator if the player is not on the last round (just so it doesn't say something nonsensical like Round 2/1)
+            if (game.getRound() <= numPlayers) {
+                roundTextView.setText(getResources().getString(R.string.round) + " " + game.getRound() + "/" +  + numPlayers);
             }
         }
-    };
+    }
+
+    @Override
+    public void onHostChanged(ParseUser host) {}
+
+    @Override
+    public void onTimeLimitChanged(int timeLimit) {}
+
+    @Override
+    public void onRoundChanged(int updatedRound) {
+        if (updatedRound > round) {
+            round = updatedRound;
+            // End the game if all rounds are finished
+            if (round > numPlayers) {
+                goGameGalleryActivity();
+                finish();
+            }
+            // Else, start next round
+            else {
+                queryForNextDoodle();
+            }
+        }
+    }
+
+    @Override
+    public void onGameError(Exception e) {
+        Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_updating_game), Snackbar.LENGTH_LONG).show();
+    }
 
     private Runnable updateTime = new Runnable() {
         @Override
@@ -260,214 +404,142 @@ public class GameActivity extends AppCompatActivity {
 
     // Receives the next doodle for the player to edit from the database
     // (the doodles in the game all just cyclically shift to the next player)
+    // It's usually been fetched and decoded already while the player was waiting
     private void queryForNextDoodle() {
-        // Specify what type of data we want to query - Doodle.class
-        ParseQuery<Doodle> query = ParseQuery.getQuery(Doodle.class);
-        // Find doodle in current game
-        query.whereEqualTo(Doodle.KEY_IN_GAME, game.getObjectId());
-        // Find doodle by the next player in line
-        int index = (indexInPlayerList + 1) % numPlayers;
-        query.whereEqualTo(Doodle.KEY_ARTIST, game.getPlayers().get(index));
         // Only include doodles with tail length equal to the number of doodles the player has already added to
         // e.g. in round 2 we want a doodle that has tail length 1 (no one has added to it yet)
-        query.whereEqualTo(Doodle.KEY_TAIL_LENGTH, game.getRound() - 1);
+        if (parentPrefetcher == null) prefetchNextDoodle(game.getRound() - 1);
 
-        // Start an asynchronous call for the doodle
-        query.getFirstInBackground((nextDoodle, e) -> {
+        parentPrefetcher.get((nextDoodle, nextBitmap, e) -> {
+            parentPrefetcher = null;
             if (e != null) { // Query has failed
                 Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_finding_doodle), Snackbar.LENGTH_LONG).show();
             } else { // Query has succeeded
                 parentDoodle = nextDoodle;
-                startNextRound();
+                startNextRound(nextBitmap);
             }
         });
     }
 
-    // Checks if everyone is done the current round
-    private void checkCurrentRound() {
-        // Specify what type of data we want to query - Doodle.class
-        ParseQuery<Doodle> query = ParseQuery.getQuery(Doodle.class);
-        // Find doodle in current game
-        query.whereEqualTo(Doodle.KEY_IN_GAME, game.getObjectId());
-        // Only find doodles submitted in current round - if all players have submitted a doodle in the current round, the round ends
-        query.whereEqualTo(Doodle.KEY_TAIL_LENGTH, round);
-
-        // Start an asynchronous call for the doodle
-        query.findInBackground((doodlesSubmittedInRound, e) -> {
-            if (e != null) { // Query has failed
-                Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_updating_game), Snackbar.LENGTH_LONG).show();
-            }
-            else { // Query has succeeded
-                if (doodlesSubmittedInRound.size() == numPlayers) {
-                    game.setRound(game.getRound() + 1);
-                    game.saveInBackground(e1 -> {
-                        if (e1 != null) { // Save has failed
-                            Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_updating_game), Snackbar.LENGTH_LONG).show();
-                        }
-                    });
-                }
-            }
-        });
+    // Starts fetching the doodle with this tail length by the next player in line
+    private void prefetchNextDoodle(int tailLength) {
+        int index = (indexInPlayerList + 1) % numPlayers;
+        int canvasSize = getResources().getDimensionPixelSize(R.dimen.canvas_size);
+        parentPrefetcher = new ParentPrefetcher(game, game.getPlayers().get(index), tailLength, canvasSize);
+        parentPrefetcher.start(game);
     }
 
-    private void startNextRound() {
+    private void startNextRound(Bitmap nextBitmap) {
         timeCurRoundEnds = game.getUpdatedAt().getTime() + (game.getTimeLimit() * 1000);
+        gameSync.setRoundDeadline(timeCurRoundEnds);
         timeHandler.post(updateTime);
         roundTextView.setText(getResources().getString(R.string.round) + " " + game.getRound() + "/" +  + numPlayers);
         timeTextView.setTextColor(MaterialColors.getColor(timeTextView, R.attr.colorSecondary));
         waitingForOtherPlayers.setVisibility(View.INVISIBLE);
-        canvasFragment = CanvasFragment.newInstance(getBitmapFromDoodle(parentDoodle), timeCurRoundEnds);
+        parentBitmap = nextBitmap == null ? null : new SharedBitmap(nextBitmap);
+        parentBitmapKey = nextBitmap == null ? null : ImageStore.get().put(nextBitmap);
+        canvasFragment = CanvasFragment.newInstance(parentBitmapKey, timeCurRoundEnds);
         fragmentManager.beginTransaction().replace(R.id.canvasFrameLayout_GAME, canvasFragment, CanvasFragment.class.getSimpleName()).show(canvasFragment).commit();
     }
 
     private void endCurrentRound() {
+        reportStrokeMetrics();
         timeTextView.setText("");
         parentDoodle = null;
+        ImageStore.get().remove(parentBitmapKey);
+        parentBitmapKey = null;
+        // The canvas shows the parent until its view is destroyed, which happens after the removal below is committed,
+        // a canvas without a view won't get one once it's removed
+        if (parentBitmap != null) {
+            if (canvasFragment.getView() == null) parentBitmap.release();
+            else retiredParentBitmaps.put(canvasFragment, parentBitmap);
+        }
+        parentBitmap = null;
         waitingForOtherPlayers.setVisibility(View.VISIBLE);
+        // The next round may start as soon as the others are done
+        gameSync.setRoundDeadline(-1);
         fragmentManager.beginTransaction().remove(canvasFragment).commit();
+        // Get the doodle for the next round ready while waiting, it's the one the next player submitted this round
+        if (round < numPlayers && parentPrefetcher == null) prefetchNextDoodle(round);
     }
 
-    // Convert transparentColor to be transparent in a Bitmap
-    public static Bitmap makeTransparent(Bitmap bitmap, int transparentColor) {
-        int width =  bitmap.getWidth();
-        int height = bitmap.getHeight();
-        Bitmap transparentBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        int [] allPixels = new int [transparentBitmap.getHeight() * transparentBitmap.getWidth()];
-        bitmap.getPixels(allPixels, 0, transparentBitmap.getWidth(), 0, 0, transparentBitmap.getWidth(),transparentBitmap.getHeight());
-        transparentBitmap.setPixels(allPixels, 0, width, 0, 0, width, height);
-
-        for (int i = 0; i < transparentBitmap.getHeight() * transparentBitmap.getWidth(); i++){
-            if (allPixels[i] == transparentColor) {
-                allPixels[i] = Color.alpha(Color.TRANSPARENT);
-            }
-        }
-
-        transparentBitmap.setPixels(allPixels, 0, transparentBitmap.getWidth(), 0, 0, transparentBitmap.getWidth(), transparentBitmap.getHeight());
-        return transparentBitmap;
-    }
-
-    // Takes the image from a Doodle and converts it to a bitmap
-    private Bitmap getBitmapFromDoodle(Doodle doodle) {
-        if (doodle == null) return null;
-        else {
-            try {
-                byte[] bitmapData = doodle.getImage().getData();
-                Bitmap bitmap = BitmapFactory.decodeByteArray(bitmapData, 0, bitmapData.length);
-                return bitmap;
-            } catch (ParseException e) {
-                Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_finding_doodle), Snackbar.LENGTH_LONG).show();
-                return null;
-            }
-        }
+    // Processes the drawing in the background, then hands the current doodle to the outbox to be saved
+    private void saveDoodle(Doodle parentDoodle, SharedBitmap parentBitmap, Bitmap drawingBitmap, byte[] drawingStrokes, Rect drawingBounds) {
+        savingProgressDialog.show();
+        int[] palette = ColorPickerFragment.getPalette(this);
+        // When only layers are stored, the drawing is uploaded without its parent, so the pipeline doesn't need it
+        boolean isLayer = isLayer(parentDoodle);
+        // A layer doesn't have to cover the whole canvas, so only the part that was drawn on is kept
+        Rect cropBounds = isLayer ? drawingBounds : null;
+        submissionPipeline = new SubmissionPipeline(drawingBitmap, isLayer ? null : parentBitmap, cropBounds, palette,
+                newSubmissionCallback(parentDoodle, drawingStrokes, isLayer, cropBounds, drawingBitmap.getWidth(), drawingBitmap.getHeight()),
+                this::showSavingProgress);
+        submissionPipeline.start();
     }
 
-    // Saves the current doodle to the database
-    private void saveDoodle(Doodle parentDoodle, Bitmap parentBitmap, Bitmap drawingBitmap) {
-        Doodle childDoodle = new Doodle();
-
-        // The artist is the current artist
-        childDoodle.setArtist(ParseUser.getCurrentUser());
-        // The image is the file that was passed in
-        ParseFile drawingFile = combineBitmapsToParseFile(drawingBitmap, parentBitmap);
-        childDoodle.setImage(drawingFile);
-        // If it has no parent, just don't set it and let it default to the default defined in the database
-        if (parentDoodle != null) childDoodle.setParent(parentDoodle);
-        // The tail length is just one longer than it's parent
-        // If it doesn't have a parent, don't set it and it will default to 1 as defined in the database
-        if (parentDoodle != null) childDoodle.setTailLength(parentDoodle.getTailLength() + 1);
-        // The root is the same as its parent
-        // If it has no parent, its root is equal to its objectId, which will be set after it is saved
-        if (parentDoodle != null) childDoodle.setRoot(parentDoodle.getRoot());
-        // Set inGame to the objectId of the current game
-        childDoodle.setInGame(game.getObjectId());
+    // Finishes the speculative submission with the strokes added since it was started
+    // Returns false if there is none or it can't be finished, in which case the drawing has to be processed from scratch
+    private boolean saveSpeculativeDoodle(Doodle parentDoodle, Bitmap drawingBitmap, byte[] drawingStrokes, Rect drawingBounds, byte[] newStrokes) {
+        if (speculativePipeline == null) return false;
+        boolean isLayer = isLayer(parentDoodle);
+        Rect cropBounds = isLayer ? drawingBounds : null;
+        List<Stroke> strokes = StrokeCodec.decode(newStrokes).getStrokes();
+        SubmissionPipeline.Callback callback = newSubmissionCallback(parentDoodle, drawingStrokes, isLayer, cropBounds, drawingBitmap.getWidth(), drawingBitmap.getHeight());
+        if (!speculativePipeline.finish(strokes, cropBounds, callback, this::showSavingProgress)) return false;
 
         savingProgressDialog.show();
-        // Save doodle to database
-        childDoodle.saveInBackground(e -> {
-            if (e != null) { // Save has failed
-                savingProgressDialog.dismiss();
-                Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
-            }
-            else { // Save has succeeded
-                // Now if it has no parent, set its root equal to its objectId
-                if (parentDoodle == null) setRootToObjectId();
-                else addToUserRootsContributedTo(parentDoodle.getRoot());
-            }
-        });
+        submissionPipeline = speculativePipeline;
+        speculativePipeline = null;
+        return true;
     }
 
-    // Sets the root of a doodle to its objectId
-    private void setRootToObjectId() {
-        // Specify what type of data we want to query - Doodle.class
-        ParseQuery<Doodle> query = ParseQuery.getQuery(Doodle.class);
-        // The doodle we want to change the root of is distinguished by having a null root
-        query.whereEqualTo(Doodle.KEY_ROOT, null);
-        // Find only doodles by the current user
-        query.whereEqualTo(Doodle.KEY_ARTIST, ParseUser.getCurrentUser());
-        // Start an asynchronous call for the doodle
-        query.findInBackground((doodles, e) -> {
-            if (e != null) { // Query has failed
-                savingProgressDialog.dismiss();
+    private SubmissionPipeline.Callback newSubmissionCallback(Doodle parentDoodle, byte[] drawingStrokes, boolean isLayer,
+                                                              Rect cropBounds, int canvasWidth, int canvasHeight) {
+        return (drawingImage, e) -> {
+            submissionPipeline = null;
+            savingProgressDialog.dismiss();
+            if (e != null) { // Processing the image has failed
                 Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
             }
-            else { // Query has succeeded
-                for (Doodle doodle: doodles) {
-                    String root = doodle.getObjectId();
-                    doodle.setRoot(root);
-                    doodle.saveInBackground(e1 -> {
-                        if (e1 != null) { // Save has failed
-                            savingProgressDialog.dismiss();
-                            Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
-                        }
-                        else { // Save has succeeded
-                            addToUserRootsContributedTo(root);
-                        }
-                    });
-                    savingProgressDialog.dismiss();
-                }
+            else { // The image is ready
+                saveDoodle(parentDoodle, drawingImage, drawingStrokes, isLayer, cropBounds, canvasWidth, canvasHeight);
             }
-        });
+        };
     }
 
-    // Adds the given root to the current user's list of roots contributed to
-    private void addToUserRootsContributedTo (String root) {
-        Player player = new Player(ParseUser.getCurrentUser());
-        player.addRootContributedTo(root);
-        // Only check if the next round should start after everything has been saved
-        player.saveInBackground(e -> {
-            savingProgressDialog.dismiss();
-            if (e != null) { // Save has failed
-                Snackbar.make(gameRelativeLayout, getResources().getString(R.string.error_saving_doodle), Snackbar.LENGTH_LONG).show();
-            }
-            else { // Save has succeeded
-                Toast.makeText(this, getResources().getString(R.string.doodle_submitted), Toast.LENGTH_SHORT).show();
-                checkCurrentRound();
-            }
-        });
+    private void showSavingProgress(Integer percentDone) {
+        savingProgressDialog.setMessage(getResources().getString(R.string.saving_doodle) + " " + percentDone + "%");
     }
 
-    // Layers drawingBitmap on top of parentBitmap and returns the result as a ParseFile
-    private ParseFile combineBitmapsToParseFile(Bitmap drawingBitmap, Bitmap parentBitmap) {
-        // If it has no parent, there is nothing to overlay it with
-        if (parentBitmap == null) return saveBitmapToParseFile(drawingBitmap);
+    // When only layers are stored, the drawing is uploaded without its parent
+    private boolean isLayer(Doodle parentDoodle) {
+        return parentDoodle != null && getResources().getBoolean(R.bool.store_layers_only);
+    }
 
-        Bitmap bmOverlay = Bitmap.createBitmap(drawingBitmap.getWidth(), drawingBitmap.getHeight(), drawingBitmap.getConfig());
-        Canvas canvas = new Canvas(bmOverlay);
-        canvas.drawBitmap(BitmapScaler.scaleToFitWidth(parentBitmap, drawingBitmap.getWidth()), new Matrix(), null);
-        canvas.drawBitmap(drawingBitmap, 0, 0, null);
-        return saveBitmapToParseFile(bmOverlay);
+    // Whether the drawing has to be composited with its parent, but the parent's bitmap couldn't be read back
+    private boolean isParentMissing(Doodle parentDoodle) {
+        return parentDoodle != null && !isLayer(parentDoodle) && parentBitmap == null;
     }
 
-    // Converts a bitmap to a ParseFile
-    private ParseFile saveBitmapToParseFile(Bitmap bitmap) {
-        String fileName = "doodle" + System.currentTimeMillis() + ".png";
-        // Configure byte output stream
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        // Compress the image
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, bytes);
-        // Save to ParseFile
-        ParseFile parseFile = new ParseFile(fileName, bytes.toByteArray());
-        return parseFile;
+    // Saves the current doodle to the database
+    // cropBounds is the part of the canvas the image was cut from, null if it covers all of it
+    // The doodle is uploaded and saved by the SubmissionOutbox, which keeps retrying if the network is bad, so the player
+    // goes on waiting for the others right away
+    // The submission is also counted towards the current round, and the round moves on once everyone has submitted,
+    // see the submitdoodle cloud function
+    private void saveDoodle(Doodle parentDoodle, EncodedImage drawingImage, byte[] drawingStrokes, boolean isLayer,
+                            Rect cropBounds, int canvasWidth, int canvasHeight) {
+        DoodleSubmission submission = new DoodleSubmission(drawingImage.getCodec().getName());
+        // The strokes are only the ones this artist added, not the whole image
+        submission.setStrokes(drawingStrokes);
+        if (isLayer) submission.setIsLayer(true);
+        if (cropBounds != null) submission.setCrop(cropBounds, canvasWidth, canvasHeight);
+        // If it has no parent, it becomes the root of a new chain
+        if (parentDoodle != null) submission.setParent(parentDoodle);
+        submission.setGame(game.getObjectId(), round);
+
+        SubmissionOutbox.get().add(submission, drawingImage);
+        Toast.makeText(this, getResources().getString(R.string.doodle_submitted), Toast.LENGTH_SHORT).show();
     }
 
     // Handles when the player tries to leave the game
@@ -540,4 +612,17 @@ public class GameActivity extends AppCompatActivity {
             }
         });
     }
-}
\ No newline at end of file
+
+    // Adds up how smoothly each stroke on the canvas was drawn, so slow devices and large canvases show up in logcat
+    // once per drawing, see reportStrokeMetrics, debug builds also log every stroke
+    @Override
+    public void onStrokeMetrics(StrokeMetrics metrics) {
+        if (BuildConfig.DEBUG) Log.d(TAG, "Stroke metrics: " + metrics);
+        strokeMetricsSummary.add(metrics);
+    }
+
+    private void reportStrokeMetrics() {
+        if (!strokeMetricsSummary.isEmpty()) Log.i(TAG, "Drawing metrics: " + strokeMetricsSummary);
+        strokeMetricsSummary = new StrokeMetricsSummary();
+    }
+}
@@ -24,6 +24,7 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import com.example.doodle.R;
+import com.example.doodle.submission.SubmissionOutbox;
 import com.google.android.material.snackbar.Snackbar;
 import com.parse.ParseInstallation;
 import com.parse.ParseUser;
@@ -178,6 +179,8 @@ public class LoginSignupActivity extends AppCompatActivity {
 
                 // Assign the user to the current installation
                 assignUserToInstallation();
+                // Doodles they drew before logging out may still be waiting to be submitted
+                SubmissionOutbox.get().resume();
             }
         });
     }
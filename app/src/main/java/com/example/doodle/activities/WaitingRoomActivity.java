@@ -9,8 +9,6 @@ import androidx.recyclerview.widget.RecyclerView;
 import android.app.ProgressDialog;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -24,16 +22,16 @@ import android.widget.TextView;
 import com.example.doodle.R;
 import com.example.doodle.adapters.PlayerAdapter;
 import com.example.doodle.models.Game;
+import com.example.doodle.sync.GameChannel;
+import com.example.doodle.sync.GameListener;
 import com.google.android.material.snackbar.Snackbar;
-import com.parse.ParseException;
 import com.parse.ParseUser;
 
 import java.util.ArrayList;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 
-public class WaitingRoomActivity extends AppCompatActivity {
+public class WaitingRoomActivity extends AppCompatActivity implements GameListener {
     public static final String TAG = "WaitingRoomActivity";
-    public static final long POLL_INTERVAL = TimeUnit.SECONDS.toMillis(2);
     public static final String DEFAULT_TIME_LIMIT = "60s";
 
     // Views in the layout
@@ -52,7 +50,7 @@ public class WaitingRoomActivity extends AppCompatActivity {
     private ArrayList<ParseUser> players;
     private PlayerAdapter playerAdapter;
     private ArrayAdapter<CharSequence> timeLimitAdapter;
-    private Handler updateHandler;
+    private GameChannel gameChannel;
     private ProgressDialog startingProgressDialog;
     private String host;
 
@@ -77,7 +75,6 @@ public class WaitingRoomActivity extends AppCompatActivity {
         game = getIntent().getParcelableExtra(GameModeActivity.TAG_GAME);
         players = game.getPlayers();
         playerAdapter = new PlayerAdapter(this, players, game.getGameCode());
-        updateHandler = new Handler(Looper.getMainLooper());
         startingProgressDialog = new ProgressDialog(WaitingRoomActivity.this);
         host = game.getHost().getObjectId();
 
@@ -155,25 +152,19 @@ public class WaitingRoomActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
 
-        // Only start checking for new messages when the app becomes active in foreground
-        updateHandler.postDelayed(updateGame, POLL_INTERVAL);
+        // Only listen for changes to the game when the app becomes active in foreground
+        // Subscribing fetches the game once, which catches up on anything that changed while paused
+        gameChannel = GameChannel.open(this, game, this);
     }
 
     @Override
     protected void onPause() {
-        // Stop background task from refreshing messages, to avoid unnecessary traffic & battery drain
-        updateHandler.removeCallbacksAndMessages(null);
+        // Stop listening for changes, to avoid unnecessary traffic & battery drain
+        gameChannel.close();
+        gameChannel = null;
         super.onPause();
     }
 
-    @Override
-    protected void onDestroy() {
-        // Stop background task from refreshing messages, to avoid unnecessary traffic & battery drain
-        updateHandler.removeCallbacksAndMessages(null);
-
-        super.onDestroy();
-    }
-
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -220,41 +211,47 @@ public class WaitingRoomActivity extends AppCompatActivity {
         });
     }
 
-    // Updates the player list, time limit, and round
-    private Runnable updateGame = new Runnable() {
-        @Override
-        public void run() {
-            try {
-                game.fetch();
-
-                // Check if host has been changed
-                if (!game.getHost().getObjectId().equals(host))
-                {
-                    host = game.getHost().getObjectId();
-                    // Check if the current user has been made the host
-                    if (host.equals(ParseUser.getCurrentUser().getObjectId())) {
-                        Snackbar.make(waitingRoomRelativeLayout, getResources().getString(R.string.you_have_been_made_host), Snackbar.LENGTH_LONG).show();
-                        setUpHostView();
-                    }
-                }
+    // The changes to the game are pushed by the GameChannel, see onResume
+    @Override
+    public void onGameUpdated(Game updatedGame) {
+        game = updatedGame;
+    }
 
-                // Check if game has been started
-                if (game.getRound() > 0) { // Game has started
-                    startingProgressDialog.dismiss();
-                    goGameActivity();
-                    finish();
-                }
+    @Override
+    public void onPlayersChanged(List<ParseUser> updatedPlayers) {
+        playerAdapter.setPlayers(updatedPlayers);
+        numPlayersTextView.setText(Integer.toString(players.size()));
+    }
 
-                playerAdapter.clear();
-                playerAdapter.addAll(game.getPlayers());
-                numPlayersTextView.setText(Integer.toString(players.size()));
-                timeLimitTextView.setText(game.getTimeLimit() + getResources().getString(R.string.seconds_unit));
-                updateHandler.postDelayed(this, POLL_INTERVAL);
-            } catch (ParseException e) {
-                Snackbar.make(waitingRoomRelativeLayout, getResources().getString(R.string.error_fetching_game_info), Snackbar.LENGTH_LONG).show();
-            }
+    @Override
+    public void onHostChanged(ParseUser updatedHost) {
+        host = updatedHost.getObjectId();
+        // Check if the current user has been made the host
+        if (host.equals(ParseUser.getCurrentUser().getObjectId())) {
+            Snackbar.make(waitingRoomRelativeLayout, getResources().getString(R.string.you_have_been_made_host), Snackbar.LENGTH_LONG).show();
+            setUpHostView();
+        }
+    }
+
+    @Override
+    public void onTimeLimitChanged(int timeLimit) {
+        timeLimitTextView.setText(timeLimit + getResources().getString(R.string.seconds_unit));
+    }
+
+    @Override
+    public void onRoundChanged(int round) {
+        // Check if game has been started
+        if (round > 0) { // Game has started
+            startingProgressDialog.dismiss();
+            goGameActivity();
+            finish();
         }
-    };
+    }
+
+    @Override
+    public void onGameError(Exception e) {
+        Snackbar.make(waitingRoomRelativeLayout, getResources().getString(R.string.error_fetching_game_info), Snackbar.LENGTH_LONG).show();
+    }
 
     // Handles when the current player becomes the host of the game
     private void setUpHostView() {
@@ -5,7 +5,6 @@ import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Color;
-import android.graphics.drawable.AnimationDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Handler;
 import android.os.Looper;
@@ -18,9 +17,9 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.bumptech.glide.Glide;
 import com.example.doodle.R;
 import com.example.doodle.activities.ContributionsGalleryActivity;
 import com.example.doodle.models.Doodle;
@@ -28,14 +27,17 @@ import com.example.doodle.models.Player;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.android.material.tabs.TabLayout;
 import com.parse.ParseException;
-import com.parse.ParseFile;
 import com.parse.ParseUser;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Consumer;
 
 public class DoodleAdapter extends RecyclerView.Adapter<DoodleAdapter.ViewHolder>{
     public static final String TAG = "DoodleAdapter";
+    public static final float HIDDEN_LAYER_TAB_ALPHA = 0.4f;
 
     public Context context;
     public List<Doodle> doodles;
@@ -77,10 +79,41 @@ public class DoodleAdapter extends RecyclerView.Adapter<DoodleAdapter.ViewHolder
         notifyDataSetChanged();
     }
 
-    // Add a list of items
+    // Add a list of items to the end, only the new rows are bound
     public void addAll(List<Doodle> list) {
+        int start = doodles.size();
         doodles.addAll(list);
-        notifyDataSetChanged();
+        notifyItemRangeInserted(start, list.size());
+    }
+
+    // Replaces the doodles with a new list, only notifying the rows that were added, removed, moved or changed
+    public void setDoodles(List<Doodle> newDoodles) {
+        List<Doodle> oldDoodles = new ArrayList<>(doodles);
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldDoodles.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newDoodles.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldDoodles.get(oldItemPosition).getObjectId().equals(newDoodles.get(newItemPosition).getObjectId());
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                // A doodle is only changed by saving it again
+                return Objects.equals(oldDoodles.get(oldItemPosition).getUpdatedAt(), newDoodles.get(newItemPosition).getUpdatedAt());
+            }
+        });
+        doodles.clear();
+        doodles.addAll(newDoodles);
+        diff.dispatchUpdatesTo(this);
     }
 
     class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
@@ -110,15 +143,7 @@ public class DoodleAdapter extends RecyclerView.Adapter<DoodleAdapter.ViewHolder
         public void bind(Doodle doodle) {
             // Bind the doodle data to the view elements
             try {
-                ParseFile image = doodle.getImage();
-                if (image != null) {
-                    AnimationDrawable loadingDrawable = (AnimationDrawable) context.getResources().getDrawable(R.drawable.loading_circle, context.getTheme());
-                    loadingDrawable.start();
-                    Glide.with(context)
-                            .load(image.getUrl())
-                            .placeholder(loadingDrawable)
-                            .into(doodleImageView);
-                }
+                DoodleImageLoader.load(context, doodle, doodleImageView);
                 // Remove the artist TextView if it is not meant to be shown
                 if (!showArtist) {
                     artistTextView.setVisibility(View.GONE);
@@ -182,6 +207,9 @@ public class DoodleAdapter extends RecyclerView.Adapter<DoodleAdapter.ViewHolder
 
                 // Recursively find the history of this doodle
                 Doodle[] doodleHistory = findDoodleHistory(doodle);
+                // Which contributors' layers are shown, only layer-only doodles can be hidden
+                boolean[] visibleLayers = new boolean[tailLength];
+                Arrays.fill(visibleLayers, true);
 
                 // Lambda function that disables the appropriate buttons if at first/last tab
                 Consumer<Integer> disableAppropriateButtons = (tab) -> {
@@ -195,15 +223,7 @@ public class DoodleAdapter extends RecyclerView.Adapter<DoodleAdapter.ViewHolder
                 Consumer<Integer> loadTab = (tab) -> {
                     try {
                         Doodle currentDoodle = doodleHistory[tab];
-                        ParseFile image = currentDoodle.getImage();
-                        if (image != null) {
-                            AnimationDrawable loadingDrawable = (AnimationDrawable) context.getResources().getDrawable(R.drawable.loading_circle, context.getTheme());
-                            loadingDrawable.start();
-                            Glide.with(context)
-                                    .load(image.getUrl())
-                                    .placeholder(loadingDrawable)
-                                    .into(doodleImageView);
-                        }
+                        DoodleImageLoader.loadChain(context, Arrays.asList(doodleHistory).subList(0, tab + 1), visibleLayers, doodleImageView);
                         Player artist = new Player(currentDoodle.getArtist().fetchIfNeeded());
                         if (artist.getObjectId().equals(ParseUser.getCurrentUser().getObjectId())) {
                             artistTextView.setText(context.getResources().getString(R.string.you));
@@ -224,6 +244,19 @@ public class DoodleAdapter extends RecyclerView.Adapter<DoodleAdapter.ViewHolder
                 for (int i = 0; i < tailLength; i++)
                     versionTabLayout.addTab(versionTabLayout.newTab());
 
+                // Long pressing a layer-only doodle's tab hides or shows its artist's strokes
+                for (int i = 0; i < tailLength; i++) {
+                    final int layer = i;
+                    TabLayout.Tab layerTab = versionTabLayout.getTabAt(i);
+                    layerTab.view.setOnLongClickListener(v -> {
+                        if (!doodleHistory[layer].getIsLayer()) return false;
+                        visibleLayers[layer] = !visibleLayers[layer];
+                        v.setAlpha(visibleLayers[layer] ? 1f : HIDDEN_LAYER_TAB_ALPHA);
+                        loadTab.accept(versionTabLayout.getSelectedTabPosition());
+                        return true;
+                    });
+                }
+
                 // Set selected tab to last tab
                 versionTabLayout.selectTab(versionTabLayout.getTabAt(tailLength - 1));
                 loadTab.accept(tailLength - 1);
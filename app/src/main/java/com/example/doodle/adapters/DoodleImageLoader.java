@@ -0,0 +1,132 @@
+package com.example.doodle.adapters;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.AnimationDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.bumptech.glide.Glide;
+import com.example.doodle.NamedThreadFactory;
+import com.example.doodle.R;
+import com.example.doodle.drawing.StrokeCodec;
+import com.example.doodle.drawing.StrokeDrawing;
+import com.example.doodle.drawing.StrokeRenderer;
+import com.example.doodle.imaging.ChainCompositor;
+import com.example.doodle.models.Doodle;
+import com.google.android.material.snackbar.Snackbar;
+import com.parse.ParseFile;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Loads the images of doodles into the ImageViews of the adapters
+public class DoodleImageLoader {
+    public static final String TAG = "DoodleImageLoader";
+    // Never hold on to more than this share of the heap
+    public static final int MAX_HEAP_FRACTION = 16;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("DoodleImageLoader"));
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Rendered roots by doodle and size, so scrolling back to one doesn't render it again
+    // They're shown by the views as they are, so an evicted one is left to the garbage collector rather than pooled
+    private static final LruCache<String, Bitmap> renderCache = new LruCache<String, Bitmap>(
+            (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / MAX_HEAP_FRACTION)) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getAllocationByteCount();
+        }
+    };
+
+    // Loads the image of a doodle into an ImageView
+    // A root doodle's strokes make up its whole image, so it is rendered at exactly the size of the view
+    // instead of downloading and decoding its PNG, on a background thread since decoding and drawing every stroke takes
+    // longer than a frame
+    // A layer-only doodle is composited with the doodles before it, see ChainCompositor
+    public static void load(Context context, Doodle doodle, ImageView imageView) {
+        imageView.setTag(R.id.chain_composite_request, null);
+
+        byte[] strokes = doodle.getStrokes();
+        int width = imageView.getLayoutParams().width;
+        if (doodle.getTailLength() == 1 && strokes != null && width > 0) {
+            String key = doodle.getObjectId() + "@" + width;
+            Bitmap rendered = renderCache.get(key);
+            if (rendered != null) {
+                Glide.with(context).clear(imageView);
+                imageView.setImageBitmap(rendered);
+                return;
+            }
+            ChainCompositor.Callback callback = startComposite(context, imageView);
+            executor.execute(() -> {
+                try {
+                    StrokeDrawing drawing = StrokeCodec.decode(strokes);
+                    int height = Math.round(width * drawing.getCanvasHeight() / (float) drawing.getCanvasWidth());
+                    Bitmap bitmap = StrokeRenderer.render(drawing, width, height);
+                    renderCache.put(key, bitmap);
+                    mainHandler.post(() -> callback.done(bitmap, null));
+                } catch (RuntimeException e) {
+                    mainHandler.post(() -> callback.done(null, e));
+                }
+            });
+            return;
+        }
+
+        if (doodle.getIsLayer()) {
+            ChainCompositor.compositeInBackground(doodle, getImageSize(context, imageView), startComposite(context, imageView));
+            return;
+        }
+
+        ParseFile image = doodle.getImage();
+        if (image != null) {
+            Glide.with(context)
+                    .load(image.getUrl())
+                    .placeholder(newLoadingDrawable(context))
+                    .into(imageView);
+        }
+    }
+
+    // Loads the image of the last doodle of a chain that is ordered root first, like a doodle's history
+    // visible may hide the layers of individual contributors by their position in the chain, null shows them all
+    public static void loadChain(Context context, List<Doodle> chain, boolean[] visible, ImageView imageView) {
+        Doodle doodle = chain.get(chain.size() - 1);
+        if (!doodle.getIsLayer()) {
+            load(context, doodle, imageView);
+            return;
+        }
+        ChainCompositor.compositeInBackground(chain, visible, getImageSize(context, imageView), startComposite(context, imageView));
+    }
+
+    // Shows the loading animation and returns the callback that replaces it with the composite, or the rendered root
+    // The view may have been given another doodle by the time the image is done, in which case it's dropped
+    private static ChainCompositor.Callback startComposite(Context context, ImageView imageView) {
+        Glide.with(context).clear(imageView);
+        imageView.setImageDrawable(newLoadingDrawable(context));
+        Object request = new Object();
+        imageView.setTag(R.id.chain_composite_request, request);
+        return (bitmap, e) -> {
+            if (imageView.getTag(R.id.chain_composite_request) != request) return;
+            imageView.setTag(R.id.chain_composite_request, null);
+            if (e != null) {
+                Snackbar.make(imageView, context.getResources().getString(R.string.error_finding_doodle), Snackbar.LENGTH_LONG).show();
+            }
+            else {
+                imageView.setImageBitmap(bitmap);
+            }
+        };
+    }
+
+    private static int getImageSize(Context context, ImageView imageView) {
+        int width = imageView.getLayoutParams().width;
+        if (width > 0) return width;
+        return context.getResources().getDimensionPixelSize(R.dimen.canvas_size);
+    }
+
+    private static AnimationDrawable newLoadingDrawable(Context context) {
+        AnimationDrawable loadingDrawable = (AnimationDrawable) context.getResources().getDrawable(R.drawable.loading_circle, context.getTheme());
+        loadingDrawable.start();
+        return loadingDrawable;
+    }
+}
@@ -1,7 +1,6 @@
 package com.example.doodle.adapters;
 
 import android.content.Context;
-import android.graphics.drawable.AnimationDrawable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,13 +11,11 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.bumptech.glide.Glide;
 import com.example.doodle.R;
 import com.example.doodle.models.Doodle;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.android.material.tabs.TabLayout;
 import com.parse.ParseException;
-import com.parse.ParseFile;
 import com.parse.ParseQuery;
 
 import java.util.ArrayList;
@@ -118,15 +115,7 @@ public class GameDoodleAdapter extends RecyclerView.Adapter<GameDoodleAdapter.Vi
                 Consumer<Integer> loadTab = (tab) -> {
                     try {
                         Doodle currentDoodle = versions.get(tab);
-                        ParseFile image = currentDoodle.getImage();
-                        if (image != null) {
-                            AnimationDrawable loadingDrawable = (AnimationDrawable) context.getResources().getDrawable(R.drawable.loading_circle, context.getTheme());
-                            loadingDrawable.start();
-                            Glide.with(context)
-                                    .load(image.getUrl())
-                                    .placeholder(loadingDrawable)
-                                    .into(doodleImageView_GAME);
-                        }
+                        DoodleImageLoader.loadChain(context, versions.subList(0, tab + 1), null, doodleImageView_GAME);
                         artistTextView.setText(currentDoodle.getArtist().fetchIfNeeded().getUsername());
                     } catch (ParseException e) {
                         Snackbar.make(itemView, context.getResources().getString(R.string.error_finding_doodle), Snackbar.LENGTH_LONG).show();
@@ -10,13 +10,17 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.doodle.R;
 import com.parse.ParseException;
 import com.parse.ParseUser;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class PlayerAdapter extends RecyclerView.Adapter<PlayerAdapter.ViewHolder>{
     public static final String TAG = "PlayerAdapter";
@@ -63,6 +67,45 @@ public class PlayerAdapter extends RecyclerView.Adapter<PlayerAdapter.ViewHolder
         notifyDataSetChanged();
     }
 
+    // Replaces the players with a new roster, only notifying the rows that were added, removed or moved
+    // Players who were already in the list keep their fetched user, so their rows aren't fetched again
+    public void setPlayers(List<ParseUser> newPlayers) {
+        Map<String, ParseUser> knownPlayers = new HashMap<>();
+        for (ParseUser player : players) knownPlayers.put(player.getObjectId(), player);
+        List<ParseUser> oldPlayers = new ArrayList<>(players);
+        List<ParseUser> mergedPlayers = new ArrayList<>(newPlayers.size());
+        for (ParseUser player : newPlayers) {
+            ParseUser knownPlayer = knownPlayers.get(player.getObjectId());
+            mergedPlayers.add(knownPlayer != null ? knownPlayer : player);
+        }
+
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldPlayers.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return mergedPlayers.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldPlayers.get(oldItemPosition).getObjectId().equals(mergedPlayers.get(newItemPosition).getObjectId());
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                // A row only shows the player's name, which doesn't change
+                return true;
+            }
+        });
+        players.clear();
+        players.addAll(mergedPlayers);
+        diff.dispatchUpdatesTo(this);
+    }
+
     class ViewHolder extends RecyclerView.ViewHolder {
         private TextView usernameTextView;
 
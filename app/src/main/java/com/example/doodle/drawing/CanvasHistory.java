@@ -0,0 +1,143 @@
+package com.example.doodle.drawing;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+import com.example.doodle.imaging.BitmapPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+// Undo/redo history of the canvas: a log of every stroke plus raster checkpoints of the canvas every few strokes
+// Drawing any point of the history means drawing the nearest checkpoint at or before it and replaying only the
+// strokes after that, so the cost of drawing or undoing stays bounded however many strokes there are
+// Checkpoints take a lot of memory, so only as many as fit in a share of the heap are kept, the oldest go first
+public class CanvasHistory {
+    public static final String TAG = "CanvasHistory";
+    public static final int CHECKPOINT_INTERVAL = 16;
+    public static final int MAX_CHECKPOINTS = 8;
+    // Never hold on to more than this share of the heap in checkpoints
+    public static final int MAX_HEAP_FRACTION = 16;
+
+    private final List<Stroke> strokes = new ArrayList<>();
+    private final List<Path> paths = new ArrayList<>();
+    // Number of strokes in the log that are currently applied, the ones after it can be redone
+    private int position;
+    // Checkpoints by the number of strokes they include
+    private final TreeMap<Integer, Bitmap> checkpoints = new TreeMap<>();
+    private final Paint paint = StrokeRenderer.newStrokePaint();
+    private int width;
+    private int height;
+    private int maxCheckpoints;
+
+    // Checkpoints are made at the size of the canvas, so they're thrown away when it changes
+    public void setSize(int width, int height) {
+        if (width == this.width && height == this.height) return;
+        this.width = width;
+        this.height = height;
+        clearCheckpoints();
+        long checkpointBytes = Math.max(1L, (long) width * height * 4);
+        long budget = Runtime.getRuntime().maxMemory() / MAX_HEAP_FRACTION;
+        maxCheckpoints = (int) Math.max(1, Math.min(MAX_CHECKPOINTS, budget / checkpointBytes));
+
+        // Remake the checkpoints closest to the current point, each one drawn from the one before it
+        int newest = position / CHECKPOINT_INTERVAL;
+        for (int i = Math.max(1, newest - maxCheckpoints + 1); i <= newest; i++) makeCheckpoint(i * CHECKPOINT_INTERVAL);
+    }
+
+    // Applies a new stroke, anything that was undone can't be redone any more
+    public void add(Stroke stroke) {
+        while (strokes.size() > position) {
+            strokes.remove(strokes.size() - 1);
+            paths.remove(paths.size() - 1);
+        }
+        while (!checkpoints.isEmpty() && checkpoints.lastKey() > position) {
+            BitmapPool.get().put(checkpoints.pollLastEntry().getValue());
+        }
+
+        strokes.add(stroke);
+        paths.add(StrokeRenderer.buildPath(stroke, 1));
+        position++;
+        if (position % CHECKPOINT_INTERVAL == 0) makeCheckpoint(position);
+    }
+
+    public boolean canUndo() {
+        return position > 0;
+    }
+
+    public boolean canRedo() {
+        return position < strokes.size();
+    }
+
+    public void undo() {
+        if (canUndo()) position--;
+    }
+
+    public void redo() {
+        if (canRedo()) position++;
+    }
+
+    // Returns the applied strokes, oldest first
+    public List<Stroke> getStrokes() {
+        return new ArrayList<>(strokes.subList(0, position));
+    }
+
+    public int getStrokeCount() {
+        return position;
+    }
+
+    // Replaces the whole history with these strokes, none of which can be undone past
+    public void setStrokes(List<Stroke> newStrokes) {
+        strokes.clear();
+        paths.clear();
+        position = 0;
+        clearCheckpoints();
+        for (Stroke stroke : newStrokes) add(stroke);
+    }
+
+    // Draws the canvas as it is at the current point of the history
+    public void draw(Canvas canvas) {
+        draw(canvas, position);
+    }
+
+    // Draws the canvas as it was after the first count strokes
+    public void draw(Canvas canvas, int count) {
+        Integer checkpoint = checkpoints.floorKey(count);
+        int start = 0;
+        if (checkpoint != null) {
+            canvas.drawBitmap(checkpoints.get(checkpoint), 0, 0, null);
+            start = checkpoint;
+        }
+        for (int i = start; i < count; i++) drawStroke(canvas, i);
+    }
+
+    // Draws only the most recently applied stroke, for a canvas that already shows everything before it
+    public void drawLastStroke(Canvas canvas) {
+        if (position > 0) drawStroke(canvas, position - 1);
+    }
+
+    private void makeCheckpoint(int count) {
+        if (width <= 0 || height <= 0 || checkpoints.containsKey(count)) return;
+        Bitmap bitmap = BitmapPool.get().getCleared(width, height, Bitmap.Config.ARGB_8888);
+        draw(new Canvas(bitmap), count);
+        checkpoints.put(count, bitmap);
+        while (checkpoints.size() > maxCheckpoints) {
+            BitmapPool.get().put(checkpoints.pollFirstEntry().getValue());
+        }
+    }
+
+    private void clearCheckpoints() {
+        for (Bitmap bitmap : checkpoints.values()) BitmapPool.get().put(bitmap);
+        checkpoints.clear();
+    }
+
+    private void drawStroke(Canvas canvas, int index) {
+        Stroke stroke = strokes.get(index);
+        paint.setColor(stroke.getColor());
+        paint.setStrokeWidth(stroke.getWidth());
+        canvas.drawPath(paths.get(index), paint);
+    }
+}
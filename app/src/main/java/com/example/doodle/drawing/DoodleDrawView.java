@@ -0,0 +1,258 @@
+package com.example.doodle.drawing;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.example.doodle.imaging.BitmapPool;
+
+import java.util.List;
+
+// The canvas the player draws on
+// Every batched touch sample is captured, see StrokeCapture, then strokes are simplified while they're drawn,
+// see StrokeSimplifier, and kept as Strokes, so the canvas holds only the points needed to draw them rather than
+// every touch point since the canvas was opened
+// Undo and redo go through a CanvasHistory
+// Finished strokes are kept drawn on an offscreen bitmap, so each frame only draws that bitmap and the stroke that
+// is being drawn, whose path is extended as points come in rather than rebuilt, however much is on the canvas
+public class DoodleDrawView extends View {
+    public static final String TAG = "DoodleDrawView";
+    public static final float DEFAULT_STROKE_WIDTH = 20;
+
+    private final CanvasHistory history = new CanvasHistory();
+    private final Paint paint = StrokeRenderer.newStrokePaint();
+
+    private int color = Color.BLACK;
+    private float strokeWidth = DEFAULT_STROKE_WIDTH;
+    // Every touch sample of the current stroke, which feeds the simplifier
+    private final StrokeCapture capture = new StrokeCapture();
+    private StrokeSimplifier currentStroke;
+    // The finished part of the current stroke, and the end of it that may still change with the next point
+    private final Path currentPath = new Path();
+    private final Path currentTailPath = new Path();
+    private int currentPathPointCount;
+    // Every finished stroke, drawn once
+    private Bitmap committedBitmap;
+    private Canvas committedCanvas;
+    private boolean committedBitmapValid;
+    // Only recorded while someone is listening
+    private StrokeMetrics.Listener metricsListener;
+    private final StrokeMetricsRecorder metricsRecorder = new StrokeMetricsRecorder();
+    private StrokeJournal journal;
+
+    public DoodleDrawView(Context context) {
+        super(context);
+    }
+
+    public DoodleDrawView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public DoodleDrawView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    // Colors are always drawn opaque, which turns the transparent eraser color into white,
+    // see StrokeRenderer.applyPaint
+    public void setColor(int color) {
+        this.color = color | 0xFF000000;
+    }
+
+    public void setStrokeWidth(float strokeWidth) {
+        this.strokeWidth = strokeWidth;
+    }
+
+    // Reports how smoothly each stroke was drawn, or stops reporting if the listener is null
+    public void setMetricsListener(StrokeMetrics.Listener metricsListener) {
+        this.metricsListener = metricsListener;
+        if (metricsListener == null) metricsRecorder.cancel();
+    }
+
+    // Records every stroke, undo and redo from now on in the journal, or stops recording if it is null
+    public void setJournal(StrokeJournal journal) {
+        this.journal = journal;
+    }
+
+    // Undoing can't be done by drawing over the committed bitmap, so it's redrawn from the history
+    public void undo() {
+        if (!history.canUndo()) return;
+        history.undo();
+        if (journal != null) journal.undo();
+        committedBitmapValid = false;
+        invalidate();
+    }
+
+    public void redo() {
+        if (!history.canRedo()) return;
+        history.redo();
+        if (journal != null) journal.redo();
+        commitLastStroke();
+        invalidate();
+    }
+
+    // Returns the finished strokes, oldest first
+    public List<Stroke> getStrokes() {
+        return history.getStrokes();
+    }
+
+    // Replaces everything on the canvas with these strokes, which aren't recorded in the journal
+    public void setStrokes(List<Stroke> strokes) {
+        history.setStrokes(strokes);
+        committedBitmapValid = false;
+        invalidate();
+    }
+
+    // Returns the drawing on a white background
+    public Bitmap getBitmap() {
+        Bitmap bitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        draw(canvas);
+        return bitmap;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        history.setSize(w, h);
+        releaseCommittedBitmap();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseCommittedBitmap();
+        metricsRecorder.cancel();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        long startNanos = System.nanoTime();
+        drawCanvas(canvas);
+        metricsRecorder.onDraw(System.nanoTime() - startNanos);
+    }
+
+    private void drawCanvas(Canvas canvas) {
+        if (committedBitmap == null && getWidth() > 0 && getHeight() > 0) {
+            committedBitmap = BitmapPool.get().getCleared(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            committedCanvas = new Canvas(committedBitmap);
+            committedBitmapValid = false;
+        }
+        if (committedBitmap == null) return;
+        if (!committedBitmapValid) {
+            committedBitmap.eraseColor(Color.TRANSPARENT);
+            history.draw(committedCanvas);
+            committedBitmapValid = true;
+        }
+        canvas.drawBitmap(committedBitmap, 0, 0, null);
+
+        if (currentStroke != null) {
+            paint.setColor(color);
+            paint.setStrokeWidth(strokeWidth);
+            canvas.drawPath(currentPath, paint);
+            canvas.drawPath(currentTailPath, paint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                if (metricsListener != null) metricsRecorder.start(getDisplay() == null ? 0 : getDisplay().getRefreshRate());
+                capture.begin(event);
+                currentStroke = new StrokeSimplifier(strokeWidth, capture.getX(0), capture.getY(0));
+                currentPath.rewind();
+                currentPathPointCount = 0;
+                updateCurrentPath();
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (currentStroke == null) return false;
+                addSamples(event);
+                updateCurrentPath();
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                if (currentStroke == null) return false;
+                if (event.getActionMasked() == MotionEvent.ACTION_UP) addSamples(event);
+                Stroke stroke = currentStroke.finish(color, strokeWidth);
+                history.add(stroke);
+                if (journal != null) journal.addStroke(stroke);
+                commitLastStroke();
+                currentStroke = null;
+                if (metricsRecorder.isRecording() && metricsListener != null) {
+                    metricsListener.onStrokeMetrics(metricsRecorder.finish(history.getStrokeCount() - 1, getWidth(), getHeight()));
+                }
+                invalidate();
+                return true;
+            default:
+                return false;
+        }
+        // Latency is counted from the oldest sample of the batch, which has waited the longest
+        metricsRecorder.onTouch(event.getHistorySize() > 0 ? event.getHistoricalEventTime(0) : event.getEventTime());
+        invalidate();
+        return true;
+    }
+
+    // Captures every sample of the event and passes the new ones on to the simplifier
+    private void addSamples(MotionEvent event) {
+        int added = capture.add(event);
+        for (int i = capture.getSampleCount() - added; i < capture.getSampleCount(); i++) {
+            currentStroke.add(capture.getX(i), capture.getY(i));
+        }
+    }
+
+    // Extends the path of the current stroke with the points the simplifier has kept since the last call,
+    // and rebuilds the short end of it that runs to the latest point, the same way StrokeRenderer.buildPath does
+    private void updateCurrentPath() {
+        int fixedCount = currentStroke.getFixedPointCount();
+        if (currentPathPointCount == 0) {
+            currentPath.moveTo(currentStroke.getX(0), currentStroke.getY(0));
+            currentPathPointCount = 1;
+        }
+        for (int i = currentPathPointCount; i < fixedCount; i++) {
+            float prevX = currentStroke.getX(i - 1);
+            float prevY = currentStroke.getY(i - 1);
+            currentPath.quadTo(prevX, prevY, (currentStroke.getX(i) + prevX) / 2, (currentStroke.getY(i) + prevY) / 2);
+        }
+        currentPathPointCount = Math.max(currentPathPointCount, fixedCount);
+
+        float lastX = currentStroke.getX(fixedCount - 1);
+        float lastY = currentStroke.getY(fixedCount - 1);
+        currentTailPath.rewind();
+        if (fixedCount >= 2) {
+            currentTailPath.moveTo((currentStroke.getX(fixedCount - 2) + lastX) / 2, (currentStroke.getY(fixedCount - 2) + lastY) / 2);
+        }
+        else {
+            currentTailPath.moveTo(lastX, lastY);
+        }
+        if (currentStroke.getPointCount() > fixedCount) {
+            float x = currentStroke.getX(fixedCount);
+            float y = currentStroke.getY(fixedCount);
+            currentTailPath.quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2);
+            currentTailPath.lineTo(x, y);
+        }
+        else {
+            currentTailPath.lineTo(lastX, lastY);
+        }
+    }
+
+    // Draws the stroke that was just applied onto the committed bitmap
+    private void commitLastStroke() {
+        if (committedBitmap != null && committedBitmapValid) history.drawLastStroke(committedCanvas);
+    }
+
+    private void releaseCommittedBitmap() {
+        BitmapPool.get().put(committedBitmap);
+        committedBitmap = null;
+        committedCanvas = null;
+        committedBitmapValid = false;
+    }
+}
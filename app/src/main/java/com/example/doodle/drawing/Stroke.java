@@ -0,0 +1,36 @@
+package com.example.doodle.drawing;
+
+// A single stroke drawn on the canvas: its paint plus the raw touch points it passed through
+public class Stroke {
+    private final int color;
+    private final float width;
+    private final float[] xs;
+    private final float[] ys;
+
+    public Stroke(int color, float width, float[] xs, float[] ys) {
+        this.color = color;
+        this.width = width;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public int getPointCount() {
+        return xs.length;
+    }
+
+    public float getX(int index) {
+        return xs[index];
+    }
+
+    public float getY(int index) {
+        return ys[index];
+    }
+}
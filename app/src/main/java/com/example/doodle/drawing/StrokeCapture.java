@@ -0,0 +1,68 @@
+package com.example.doodle.drawing;
+
+import android.view.MotionEvent;
+
+// The raw touch positions of the stroke being drawn
+// Android batches the samples that arrive between frames into a single MotionEvent, so every historical sample
+// of an event is read as well as its latest one, otherwise a fast stroke only keeps one point per frame and
+// turns into a polygon
+// Samples go into growable primitive arrays, so capturing a point allocates nothing once they're big enough,
+// and the arrays are kept from one stroke to the next
+// Only positions are kept, strokes are drawn and stored at a constant width, so times and pressures have no use
+public class StrokeCapture {
+    public static final String TAG = "StrokeCapture";
+
+    private static final int INITIAL_CAPACITY = 128;
+
+    private float[] xs = new float[INITIAL_CAPACITY];
+    private float[] ys = new float[INITIAL_CAPACITY];
+    private int count;
+
+    // Starts a new stroke at the ACTION_DOWN event
+    public void begin(MotionEvent event) {
+        count = 0;
+        append(event.getX(), event.getY());
+    }
+
+    // Adds every sample of a move or up event, oldest first, and returns how many samples were added
+    // The new samples are the last ones, from getSampleCount() minus the returned count
+    public int add(MotionEvent event) {
+        int historySize = event.getHistorySize();
+        for (int i = 0; i < historySize; i++) {
+            append(event.getHistoricalX(i), event.getHistoricalY(i));
+        }
+        append(event.getX(), event.getY());
+        return historySize + 1;
+    }
+
+    public int getSampleCount() {
+        return count;
+    }
+
+    public float getX(int index) {
+        return xs[index];
+    }
+
+    public float getY(int index) {
+        return ys[index];
+    }
+
+    private void append(float x, float y) {
+        if (count == xs.length) grow();
+        xs[count] = x;
+        ys[count] = y;
+        count++;
+    }
+
+    private void grow() {
+        int capacity = xs.length * 2;
+        xs = copyOf(xs, capacity);
+        ys = copyOf(ys, capacity);
+    }
+
+    private float[] copyOf(float[] array, int capacity) {
+        float[] copy = new float[capacity];
+        System.arraycopy(array, 0, copy, 0, count);
+        return copy;
+    }
+}
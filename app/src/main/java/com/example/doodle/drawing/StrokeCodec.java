@@ -0,0 +1,137 @@
+package com.example.doodle.drawing;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compact binary format for a list of strokes
+// Layout: magic, version, canvas width, canvas height, stroke count, then for every stroke its
+// ARGB color, width and point count followed by the points. Points are quantized to a quarter pixel
+// and stored as zigzag varint deltas from the previous point, so a typical stroke costs 2-3 bytes per point
+public class StrokeCodec {
+    public static final String TAG = "StrokeCodec";
+    public static final int MAGIC = 0x4453; // "DS"
+    public static final int VERSION = 1;
+    // Number of steps per pixel that coordinates and widths are rounded to
+    public static final float QUANTIZATION = 4f;
+
+    public static byte[] encode(List<Stroke> strokes, int canvasWidth, int canvasHeight) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + strokes.size() * 64);
+        out.write(MAGIC >> 8);
+        out.write(MAGIC & 0xFF);
+        out.write(VERSION);
+        writeVarInt(out, canvasWidth);
+        writeVarInt(out, canvasHeight);
+        writeVarInt(out, strokes.size());
+        for (Stroke stroke : strokes) writeStroke(out, stroke);
+        return out.toByteArray();
+    }
+
+    public static StrokeDrawing decode(byte[] data) {
+        Reader in = new Reader(data);
+        int magic = (in.readByte() << 8) | in.readByte();
+        int version = in.readByte();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IllegalArgumentException("Not a stroke drawing (magic " + magic + ", version " + version + ")");
+        }
+        int canvasWidth = in.readVarInt();
+        int canvasHeight = in.readVarInt();
+        int strokeCount = in.readVarInt();
+
+        List<Stroke> strokes = new ArrayList<>(strokeCount);
+        for (int s = 0; s < strokeCount; s++) strokes.add(readStroke(in));
+        return new StrokeDrawing(canvasWidth, canvasHeight, strokes);
+    }
+
+    // Encodes a single stroke, without the header of a whole drawing
+    public static byte[] encodeStroke(Stroke stroke) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeStroke(out, stroke);
+        return out.toByteArray();
+    }
+
+    public static Stroke decodeStroke(byte[] data) {
+        return readStroke(new Reader(data));
+    }
+
+    private static void writeStroke(ByteArrayOutputStream out, Stroke stroke) {
+        int color = stroke.getColor();
+        out.write(color >>> 24);
+        out.write((color >> 16) & 0xFF);
+        out.write((color >> 8) & 0xFF);
+        out.write(color & 0xFF);
+        writeVarInt(out, Math.round(stroke.getWidth() * QUANTIZATION));
+
+        int pointCount = stroke.getPointCount();
+        writeVarInt(out, pointCount);
+        int previousX = 0;
+        int previousY = 0;
+        for (int i = 0; i < pointCount; i++) {
+            int x = Math.round(stroke.getX(i) * QUANTIZATION);
+            int y = Math.round(stroke.getY(i) * QUANTIZATION);
+            writeVarInt(out, zigzag(x - previousX));
+            writeVarInt(out, zigzag(y - previousY));
+            previousX = x;
+            previousY = y;
+        }
+    }
+
+    private static Stroke readStroke(Reader in) {
+        int color = (in.readByte() << 24) | (in.readByte() << 16) | (in.readByte() << 8) | in.readByte();
+        float width = in.readVarInt() / QUANTIZATION;
+
+        int pointCount = in.readVarInt();
+        float[] xs = new float[pointCount];
+        float[] ys = new float[pointCount];
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < pointCount; i++) {
+            x += unzigzag(in.readVarInt());
+            y += unzigzag(in.readVarInt());
+            xs[i] = x / QUANTIZATION;
+            ys[i] = y / QUANTIZATION;
+        }
+        return new Stroke(color, width, xs, ys);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // Sequential reader over an encoded byte array
+    private static class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            if (position >= data.length) throw new IllegalArgumentException("Stroke drawing is truncated");
+            return data[position++] & 0xFF;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varint in stroke drawing");
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.doodle.drawing;
+
+import android.graphics.Rect;
+
+import java.util.List;
+
+// A list of strokes together with the size of the canvas they were drawn on
+public class StrokeDrawing {
+    private final int canvasWidth;
+    private final int canvasHeight;
+    private final List<Stroke> strokes;
+
+    public StrokeDrawing(int canvasWidth, int canvasHeight, List<Stroke> strokes) {
+        this.canvasWidth = canvasWidth;
+        this.canvasHeight = canvasHeight;
+        this.strokes = strokes;
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+
+    public List<Stroke> getStrokes() {
+        return strokes;
+    }
+
+    // Returns the part of the canvas the strokes could have painted, or null if there are none
+    // Each point is padded by half its stroke's width, plus a pixel for antialiasing
+    public Rect getBounds() {
+        Rect bounds = null;
+        for (Stroke stroke : strokes) {
+            int padding = (int) Math.ceil(stroke.getWidth() / 2) + 1;
+            for (int i = 0; i < stroke.getPointCount(); i++) {
+                int x = (int) stroke.getX(i);
+                int y = (int) stroke.getY(i);
+                if (bounds == null) bounds = new Rect(x - padding, y - padding, x + padding + 1, y + padding + 1);
+                else bounds.union(x - padding, y - padding, x + padding + 1, y + padding + 1);
+            }
+        }
+        if (bounds == null || !bounds.intersect(0, 0, canvasWidth, canvasHeight)) return null;
+        return bounds;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.doodle.drawing;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.doodle.NamedThreadFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Append-only file of everything done on a canvas, so a drawing survives the process being killed
+// Every finished stroke, undo and redo is appended as a record as it happens, and replaying the records in order
+// gives back the strokes that were on the canvas
+// Layout of a record: type byte, then for a stroke its length and its StrokeCodec encoding
+// Records are written and flushed on a background thread, a record cut short by the process dying is ignored,
+// and so is anything after a record that doesn't make sense, such as one longer than the whole file
+public class StrokeJournal {
+    public static final String TAG = "StrokeJournal";
+    // Journals older than this belong to drawings that were never finished and are deleted
+    public static final long MAX_FILE_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final String DIRECTORY_NAME = "stroke_journals";
+    private static final String FILE_EXTENSION = ".journal";
+    private static final int RECORD_STROKE = 1;
+    private static final int RECORD_UNDO = 2;
+    private static final int RECORD_REDO = 3;
+
+    // Journals share one thread, so a journal is never read or deleted while it's being written
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("StrokeJournal"));
+
+    public interface Callback {
+        // Called on the main thread with the strokes that were on the canvas, oldest first
+        void done(List<Stroke> strokes);
+    }
+
+    private final File file;
+    // Only used on the executor
+    private DataOutputStream out;
+    private boolean failed;
+
+    // Opens the journal with this name, creating it if there is none, and deletes any abandoned ones
+    public static StrokeJournal open(Context context, String name) {
+        return open(new File(context.getFilesDir(), DIRECTORY_NAME), name);
+    }
+
+    // Opens the journal with this name in the directory, which only holds journals
+    public static StrokeJournal open(File directory, String name) {
+        StrokeJournal journal = new StrokeJournal(new File(directory, name + FILE_EXTENSION));
+        executor.execute(() -> deleteOldFiles(directory));
+        return journal;
+    }
+
+    private StrokeJournal(File file) {
+        this.file = file;
+    }
+
+    public void addStroke(Stroke stroke) {
+        byte[] data = StrokeCodec.encodeStroke(stroke);
+        append(RECORD_STROKE, data);
+    }
+
+    public void undo() {
+        append(RECORD_UNDO, null);
+    }
+
+    public void redo() {
+        append(RECORD_REDO, null);
+    }
+
+    // Replaces the records with these strokes, so the journal matches a canvas that was set up with them, such as from
+    // the strokes kept in a ViewModel, which would otherwise be missing from it
+    // The new journal is written next to the old one and then takes its place, so it's never found half written
+    public void reset(List<Stroke> strokes) {
+        List<byte[]> records = new ArrayList<>(strokes.size());
+        for (Stroke stroke : strokes) records.add(StrokeCodec.encodeStroke(stroke));
+        executor.execute(() -> {
+            closeStream();
+            failed = false;
+            File tempFile = new File(file.getPath() + ".tmp");
+            try {
+                File directory = file.getParentFile();
+                if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Couldn't create " + directory);
+                try (DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                    for (byte[] data : records) writeRecord(tempOut, RECORD_STROKE, data);
+                }
+                if (!tempFile.renameTo(file)) throw new IOException("Couldn't rename " + tempFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't reset " + file, e);
+                failed = true;
+                tempFile.delete();
+            }
+        });
+    }
+
+    // Replays the journal on its thread, after every record added before, and hands the strokes to the callback
+    public void read(Callback callback) {
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        executor.execute(() -> {
+            List<Stroke> strokes = read();
+            mainHandler.post(() -> callback.done(strokes));
+        });
+    }
+
+    // Replays the journal and returns the strokes that were on the canvas, oldest first
+    // Reads the file on the calling thread, which is the journal's own thread except in tests
+    List<Stroke> read() {
+        List<Stroke> strokes = new ArrayList<>();
+        int position = 0;
+        if (!file.isFile()) return strokes;
+        long fileLength = file.length();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int type = in.read();
+                if (type < 0) break;
+                if (type == RECORD_STROKE) {
+                    int length = in.readInt();
+                    if (length < 0 || length > fileLength) {
+                        Log.e(TAG, "Ignoring a stroke of length " + length + " and everything after it in " + file);
+                        break;
+                    }
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    while (strokes.size() > position) strokes.remove(strokes.size() - 1);
+                    strokes.add(StrokeCodec.decodeStroke(data));
+                    position++;
+                }
+                else if (type == RECORD_UNDO) {
+                    if (position > 0) position--;
+                }
+                else if (type == RECORD_REDO) {
+                    if (position < strokes.size()) position++;
+                }
+                else {
+                    Log.e(TAG, "Unknown record " + type + " in " + file);
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            Log.d(TAG, "Ignoring the unfinished last record of " + file);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Couldn't read " + file, e);
+        }
+        return new ArrayList<>(strokes.subList(0, position));
+    }
+
+    // Closes the journal, it can still be read afterwards
+    public void close() {
+        executor.execute(this::closeStream);
+    }
+
+    // Closes and deletes the journal, once the drawing it records is finished or abandoned
+    public void delete() {
+        executor.execute(() -> {
+            closeStream();
+            if (!file.delete()) Log.d(TAG, "No journal to delete at " + file);
+        });
+    }
+
+    private void append(int type, byte[] data) {
+        executor.execute(() -> {
+            if (failed) return;
+            try {
+                if (out == null) {
+                    File directory = file.getParentFile();
+                    if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Couldn't create " + directory);
+                    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                }
+                writeRecord(out, type, data);
+                // Hand the record to the OS right away, which keeps it if only the process dies
+                out.flush();
+            } catch (IOException e) {
+                // Later records would be replayed against a missing one, so the journal stops here
+                Log.e(TAG, "Couldn't write to " + file, e);
+                failed = true;
+                closeStream();
+            }
+        });
+    }
+
+    private static void writeRecord(DataOutputStream out, int type, byte[] data) throws IOException {
+        out.write(type);
+        if (data != null) {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private void closeStream() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't close " + file, e);
+        }
+        out = null;
+    }
+
+    private static void deleteOldFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        long oldest = System.currentTimeMillis() - MAX_FILE_AGE_MILLIS;
+        for (File file : files) {
+            if (file.lastModified() < oldest) file.delete();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.doodle.drawing;
+
+import java.util.Locale;
+
+// How smoothly one stroke was drawn, along with how much was on the canvas at the time
+// Render times are how long DoodleDrawView.onDraw took, latency is from a touch event to the end of the first
+// onDraw after it, and a frame counts as dropped when the display went a whole frame without one
+public class StrokeMetrics {
+    public static final String TAG = "StrokeMetrics";
+
+    public interface Listener {
+        // Called on the main thread when a stroke has been finished
+        void onStrokeMetrics(StrokeMetrics metrics);
+    }
+
+    private final int strokeCount;
+    private final int canvasWidth;
+    private final int canvasHeight;
+    private final int frameCount;
+    private final int droppedFrameCount;
+    private final float averageRenderMillis;
+    private final float maxRenderMillis;
+    private final float averageLatencyMillis;
+    private final float maxLatencyMillis;
+
+    public StrokeMetrics(int strokeCount, int canvasWidth, int canvasHeight, int frameCount, int droppedFrameCount,
+                         float averageRenderMillis, float maxRenderMillis, float averageLatencyMillis, float maxLatencyMillis) {
+        this.strokeCount = strokeCount;
+        this.canvasWidth = canvasWidth;
+        this.canvasHeight = canvasHeight;
+        this.frameCount = frameCount;
+        this.droppedFrameCount = droppedFrameCount;
+        this.averageRenderMillis = averageRenderMillis;
+        this.maxRenderMillis = maxRenderMillis;
+        this.averageLatencyMillis = averageLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    // Number of strokes on the canvas before this one
+    public int getStrokeCount() {
+        return strokeCount;
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    public float getAverageRenderMillis() {
+        return averageRenderMillis;
+    }
+
+    public float getMaxRenderMillis() {
+        return maxRenderMillis;
+    }
+
+    public float getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    public float getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "strokes=%d canvas=%dx%d frames=%d dropped=%d render=%.2f/%.2fms latency=%.1f/%.1fms",
+                strokeCount, canvasWidth, canvasHeight, frameCount, droppedFrameCount,
+                averageRenderMillis, maxRenderMillis, averageLatencyMillis, maxLatencyMillis);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.doodle.drawing;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+// Collects StrokeMetrics for DoodleDrawView while a stroke is being drawn
+// Frames are watched with Choreographer callbacks for as long as the stroke lasts, and nothing is allocated per frame
+class StrokeMetricsRecorder implements Choreographer.FrameCallback {
+    private static final float DEFAULT_REFRESH_RATE = 60;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final float NANOS_PER_MILLI = 1_000_000f;
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private long frameIntervalNanos = (long) (NANOS_PER_SECOND / DEFAULT_REFRESH_RATE);
+    private boolean recording;
+
+    private long lastFrameTimeNanos;
+    private int frameCount;
+    private int droppedFrameCount;
+    private int renderCount;
+    private long totalRenderNanos;
+    private long maxRenderNanos;
+    // Time of the oldest touch event that hasn't been drawn yet, 0 if there is none
+    private long pendingEventTime;
+    private int latencyCount;
+    private long totalLatencyMillis;
+    private long maxLatencyMillis;
+
+    void start(float refreshRate) {
+        if (refreshRate > 0) frameIntervalNanos = (long) (NANOS_PER_SECOND / refreshRate);
+        lastFrameTimeNanos = 0;
+        frameCount = 0;
+        droppedFrameCount = 0;
+        renderCount = 0;
+        totalRenderNanos = 0;
+        maxRenderNanos = 0;
+        pendingEventTime = 0;
+        latencyCount = 0;
+        totalLatencyMillis = 0;
+        maxLatencyMillis = 0;
+        if (!recording) choreographer.postFrameCallback(this);
+        recording = true;
+    }
+
+    boolean isRecording() {
+        return recording;
+    }
+
+    // eventTime is MotionEvent.getEventTime, in the uptimeMillis time base
+    void onTouch(long eventTime) {
+        if (recording && pendingEventTime == 0) pendingEventTime = eventTime;
+    }
+
+    void onDraw(long renderNanos) {
+        if (!recording) return;
+        renderCount++;
+        totalRenderNanos += renderNanos;
+        maxRenderNanos = Math.max(maxRenderNanos, renderNanos);
+        if (pendingEventTime != 0) {
+            long latency = SystemClock.uptimeMillis() - pendingEventTime;
+            latencyCount++;
+            totalLatencyMillis += latency;
+            maxLatencyMillis = Math.max(maxLatencyMillis, latency);
+            pendingEventTime = 0;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!recording) return;
+        if (lastFrameTimeNanos != 0) {
+            long missed = (frameTimeNanos - lastFrameTimeNanos + frameIntervalNanos / 2) / frameIntervalNanos - 1;
+            if (missed > 0) droppedFrameCount += missed;
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+        frameCount++;
+        choreographer.postFrameCallback(this);
+    }
+
+    StrokeMetrics finish(int strokeCount, int canvasWidth, int canvasHeight) {
+        recording = false;
+        choreographer.removeFrameCallback(this);
+        return new StrokeMetrics(strokeCount, canvasWidth, canvasHeight, frameCount, droppedFrameCount,
+                renderCount == 0 ? 0 : totalRenderNanos / NANOS_PER_MILLI / renderCount,
+                maxRenderNanos / NANOS_PER_MILLI,
+                latencyCount == 0 ? 0 : totalLatencyMillis / (float) latencyCount,
+                maxLatencyMillis);
+    }
+
+    void cancel() {
+        recording = false;
+        choreographer.removeFrameCallback(this);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.doodle.drawing;
+
+import java.util.Locale;
+
+// Adds up the StrokeMetrics of every stroke drawn on a canvas, so a whole drawing session is reported at once
+// Averages are weighted by each stroke's frame count, and maximums are the worst of any stroke
+public class StrokeMetricsSummary {
+    public static final String TAG = "StrokeMetricsSummary";
+
+    private int strokes;
+    private int canvasWidth;
+    private int canvasHeight;
+    private int frameCount;
+    private int droppedFrameCount;
+    private double totalRenderMillis;
+    private float maxRenderMillis;
+    private double totalLatencyMillis;
+    private float maxLatencyMillis;
+
+    public void add(StrokeMetrics metrics) {
+        strokes++;
+        canvasWidth = metrics.getCanvasWidth();
+        canvasHeight = metrics.getCanvasHeight();
+        frameCount += metrics.getFrameCount();
+        droppedFrameCount += metrics.getDroppedFrameCount();
+        totalRenderMillis += (double) metrics.getAverageRenderMillis() * metrics.getFrameCount();
+        maxRenderMillis = Math.max(maxRenderMillis, metrics.getMaxRenderMillis());
+        totalLatencyMillis += (double) metrics.getAverageLatencyMillis() * metrics.getFrameCount();
+        maxLatencyMillis = Math.max(maxLatencyMillis, metrics.getMaxLatencyMillis());
+    }
+
+    public boolean isEmpty() {
+        return strokes == 0;
+    }
+
+    public int getStrokes() {
+        return strokes;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    public float getAverageRenderMillis() {
+        return frameCount == 0 ? 0 : (float) (totalRenderMillis / frameCount);
+    }
+
+    public float getMaxRenderMillis() {
+        return maxRenderMillis;
+    }
+
+    public float getAverageLatencyMillis() {
+        return frameCount == 0 ? 0 : (float) (totalLatencyMillis / frameCount);
+    }
+
+    public float getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "strokes=%d canvas=%dx%d frames=%d dropped=%d render=%.2f/%.2fms latency=%.1f/%.1fms",
+                strokes, canvasWidth, canvasHeight, frameCount, droppedFrameCount,
+                getAverageRenderMillis(), maxRenderMillis, getAverageLatencyMillis(), maxLatencyMillis);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.doodle.drawing;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+// Rasterizes strokes at any target size
+public class StrokeRenderer {
+    public static final String TAG = "StrokeRenderer";
+
+    // Renders the drawing onto a new transparent bitmap of the given size, keeping its aspect ratio
+    public static Bitmap render(StrokeDrawing drawing, int targetWidth, int targetHeight) {
+        Bitmap bitmap = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        float scaleW = targetWidth / (float) drawing.getCanvasWidth();
+        float scaleH = targetHeight / (float) drawing.getCanvasHeight();
+        draw(canvas, drawing, Math.min(scaleW, scaleH));
+        return bitmap;
+    }
+
+    // Decodes and renders an encoded drawing, see StrokeCodec
+    public static Bitmap render(byte[] encodedDrawing, int targetWidth, int targetHeight) {
+        return render(StrokeCodec.decode(encodedDrawing), targetWidth, targetHeight);
+    }
+
+    // Draws every stroke of the drawing onto the canvas, scaling coordinates and widths by scale
+    public static void draw(Canvas canvas, StrokeDrawing drawing, float scale) {
+        Paint paint = newStrokePaint();
+        for (Stroke stroke : drawing.getStrokes()) {
+            drawStroke(canvas, stroke, scale, paint);
+        }
+    }
+
+    public static void drawStroke(Canvas canvas, Stroke stroke, float scale, Paint paint) {
+        if (stroke.getPointCount() == 0) return;
+        applyPaint(paint, stroke, scale);
+        canvas.drawPath(buildPath(stroke, scale), paint);
+    }
+
+    public static Paint newStrokePaint() {
+        Paint paint = new Paint();
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    // Sets up the paint for a stroke
+    // The eraser paints opaque white, and white is keyed out to transparent before a doodle is saved,
+    // so white strokes clear whatever is underneath them instead of painting over it
+    public static void applyPaint(Paint paint, Stroke stroke, float scale) {
+        paint.setStrokeWidth(stroke.getWidth() * scale);
+        if (stroke.getColor() == Color.WHITE) {
+            paint.setColor(Color.TRANSPARENT);
+            paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+        }
+        else {
+            paint.setColor(stroke.getColor());
+            paint.setXfermode(null);
+        }
+    }
+
+    // Rebuilds the smoothed path the same way the canvas draws it while the finger moves:
+    // every touch point is a quadratic control point and the curve passes through the midpoints between them
+    public static Path buildPath(Stroke stroke, float scale) {
+        Path path = new Path();
+        int pointCount = stroke.getPointCount();
+        float prevX = stroke.getX(0) * scale;
+        float prevY = stroke.getY(0) * scale;
+        path.moveTo(prevX, prevY);
+        for (int i = 1; i < pointCount; i++) {
+            float x = stroke.getX(i) * scale;
+            float y = stroke.getY(i) * scale;
+            path.quadTo(prevX, prevY, (x + prevX) / 2, (y + prevY) / 2);
+            prevX = x;
+            prevY = y;
+        }
+        path.lineTo(prevX, prevY);
+
+        // A single tap is drawn as a dot
+        if (pointCount == 1) {
+            path.lineTo(prevX, prevY + 2 * scale);
+            path.lineTo(prevX + scale, prevY + 2 * scale);
+            path.lineTo(prevX + scale, prevY);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.doodle.drawing;
+
+// Thins out the touch points of a stroke while it is being drawn
+// A point is only kept once the stroke has moved far enough from the last kept point and has turned away from
+// the straight line between them, so a slow or straight stroke keeps a handful of points however long the finger
+// stays down, while corners and tight curves keep all the points they need
+// Every point dropped since the last kept point has to stay within the tolerance of the simplified stroke, not only
+// the latest one, so a stroke that slowly drifts away, or goes out and comes back, keeps the points it turned at
+// The tolerance grows with the stroke width, since a thick stroke hides small deviations
+public class StrokeSimplifier {
+    public static final String TAG = "StrokeSimplifier";
+    // How far, as a share of the stroke width, a dropped point may be from the simplified stroke
+    public static final float TOLERANCE_PER_WIDTH = 0.15f;
+    public static final float MIN_TOLERANCE = 0.75f;
+    // How far the stroke may turn before the point where it turned is kept
+    public static final double MAX_TURN_DEGREES = 12;
+
+    private static final double MAX_TURN_COS = Math.cos(Math.toRadians(MAX_TURN_DEGREES));
+    private static final int INITIAL_CAPACITY = 32;
+    // Dropped points are checked again for every new point, so the candidate is kept once there are this many,
+    // which bounds the work per point
+    private static final int MAX_DROPPED_POINTS = 64;
+
+    private final float tolerance;
+    private float[] xs = new float[INITIAL_CAPACITY];
+    private float[] ys = new float[INITIAL_CAPACITY];
+    private int count;
+
+    // The latest point, which is kept or dropped once the next one shows where the stroke goes
+    private boolean hasCandidate;
+    private float candidateX;
+    private float candidateY;
+    // Points dropped since the last kept point, which the simplified stroke still has to pass close to
+    private final float[] droppedXs = new float[MAX_DROPPED_POINTS];
+    private final float[] droppedYs = new float[MAX_DROPPED_POINTS];
+    private int droppedCount;
+    // Direction the stroke set off in from the last kept point
+    private boolean hasDirection;
+    private float directionX;
+    private float directionY;
+
+    public StrokeSimplifier(float strokeWidth, float x, float y) {
+        tolerance = Math.max(MIN_TOLERANCE, strokeWidth * TOLERANCE_PER_WIDTH);
+        append(x, y);
+    }
+
+    public void add(float x, float y) {
+        float lastX = xs[count - 1];
+        float lastY = ys[count - 1];
+        float dx = x - lastX;
+        float dy = y - lastY;
+        float distance = (float) Math.hypot(dx, dy);
+
+        if (!hasCandidate) {
+            setCandidate(x, y);
+            return;
+        }
+
+        // The direction is only worth anything once the stroke has left the last kept point's neighbourhood
+        boolean turned = false;
+        if (distance >= tolerance) {
+            if (!hasDirection) {
+                directionX = dx / distance;
+                directionY = dy / distance;
+                hasDirection = true;
+            }
+            turned = (directionX * dx + directionY * dy) / distance < MAX_TURN_COS;
+        }
+
+        // The candidate can go if it and every point dropped before it lie close to the segment from the last kept
+        // point to the new one, and that segment hasn't turned too far from the direction the stroke set off in
+        if (!turned && droppedCount < MAX_DROPPED_POINTS && getMaxDeviation(lastX, lastY, x, y) <= tolerance) {
+            droppedXs[droppedCount] = candidateX;
+            droppedYs[droppedCount] = candidateY;
+            droppedCount++;
+            setCandidate(x, y);
+            return;
+        }
+
+        append(candidateX, candidateY);
+        droppedCount = 0;
+        float nextDistance = (float) Math.hypot(x - candidateX, y - candidateY);
+        hasDirection = nextDistance > 0;
+        if (hasDirection) {
+            directionX = (x - candidateX) / nextDistance;
+            directionY = (y - candidateY) / nextDistance;
+        }
+        setCandidate(x, y);
+    }
+
+    // Number of points that are kept for good, they come before the latest one
+    public int getFixedPointCount() {
+        return count;
+    }
+
+    // Number of points of the stroke so far, including the latest one even if it may still be dropped
+    public int getPointCount() {
+        return hasCandidate ? count + 1 : count;
+    }
+
+    public float getX(int index) {
+        return index == count ? candidateX : xs[index];
+    }
+
+    public float getY(int index) {
+        return index == count ? candidateY : ys[index];
+    }
+
+    // Returns the simplified stroke, which always ends at the last point that was added
+    public Stroke finish(int color, float width) {
+        if (hasCandidate) {
+            append(candidateX, candidateY);
+            hasCandidate = false;
+        }
+        float[] strokeXs = new float[count];
+        float[] strokeYs = new float[count];
+        System.arraycopy(xs, 0, strokeXs, 0, count);
+        System.arraycopy(ys, 0, strokeYs, 0, count);
+        return new Stroke(color, width, strokeXs, strokeYs);
+    }
+
+    // How far the candidate and the dropped points are from the segment between the two points
+    private float getMaxDeviation(float x1, float y1, float x2, float y2) {
+        float maxDeviation = distanceToSegment(candidateX, candidateY, x1, y1, x2, y2);
+        for (int i = 0; i < droppedCount; i++) {
+            maxDeviation = Math.max(maxDeviation, distanceToSegment(droppedXs[i], droppedYs[i], x1, y1, x2, y2));
+        }
+        return maxDeviation;
+    }
+
+    // Distance from the point to the closest point of the segment, which may be one of its ends, so a point the stroke
+    // backtracked to counts as far off even if it's on the same line
+    private static float distanceToSegment(float x, float y, float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return (float) Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+    }
+
+    private void setCandidate(float x, float y) {
+        candidateX = x;
+        candidateY = y;
+        hasCandidate = true;
+    }
+
+    private void append(float x, float y) {
+        if (count == xs.length) {
+            float[] newXs = new float[count * 2];
+            float[] newYs = new float[count * 2];
+            System.arraycopy(xs, 0, newXs, 0, count);
+            System.arraycopy(ys, 0, newYs, 0, count);
+            xs = newXs;
+            ys = newYs;
+        }
+        xs[count] = x;
+        ys[count] = y;
+        count++;
+    }
+}
@@ -1,15 +1,14 @@
 package com.example.doodle.fragments;
 
 import android.content.res.ColorStateList;
-import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.graphics.drawable.AnimationDrawable;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
+import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.ViewModelProvider;
 
 import android.os.Handler;
@@ -22,9 +21,14 @@ import android.widget.Button;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 
-import com.bumptech.glide.Glide;
-import com.divyanshu.draw.widget.DrawView;
 import com.example.doodle.R;
+import com.example.doodle.drawing.DoodleDrawView;
+import com.example.doodle.drawing.Stroke;
+import com.example.doodle.drawing.StrokeCodec;
+import com.example.doodle.drawing.StrokeDrawing;
+import com.example.doodle.drawing.StrokeJournal;
+import com.example.doodle.drawing.StrokeMetrics;
+import com.example.doodle.imaging.ImageStore;
 import com.example.doodle.models.CanvasViewModel;
 import com.example.doodle.models.ColorViewModel;
 
@@ -33,6 +37,9 @@ import net.cachapa.expandablelayout.ExpandableLayout;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 public class CanvasFragment extends Fragment {
     public static final String TAG = "CanvasFragment";
@@ -42,11 +49,21 @@ public class CanvasFragment extends Fragment {
     public static final String TAG_PARENT_DOODLE = "parentDoodle";
     public static final String TAG_TIME_CUR_ROUND_ENDS = "timeCurRoundEnds";
     public static final String TAG_RESULT_DOODLE = "resultDoodle";
+    // Key of the drawing's bitmap in the ImageStore
     public static final String TAG_DRAWING_BITMAP = "drawingBitmap";
+    public static final String TAG_DRAWING_STROKES = "drawingStrokes";
+    // The part of the drawing that was drawn on, null if nothing was
+    public static final String TAG_DRAWING_BOUNDS = "drawingBounds";
+    public static final String TAG_JOURNAL_NAME = "journalName";
+    // Sent shortly before the deadline with the drawing so far, so the parent activity can start processing it early
+    public static final String TAG_SPECULATIVE_DOODLE = "speculativeDoodle";
+    // Strokes added since the speculative drawing was sent, only put in the result if that's all that changed
+    public static final String TAG_DRAWING_NEW_STROKES = "drawingNewStrokes";
+    public static final long SPECULATION_LEAD_MILLIS = 3000;
 
     // Views in the layout
     private ImageView parentImageView;
-    private DrawView doodleDrawView;
+    private DoodleDrawView doodleDrawView;
     private Button undoButton;
     private Button redoButton;
     private Button smallButton;
@@ -58,7 +75,7 @@ public class CanvasFragment extends Fragment {
     private Button doneButton;
 
     // Other necessary member variables
-    Bitmap parentBitmap;
+    String parentBitmapKey;
     private FragmentManager fragmentManager;
     private Fragment colorPickerFragment;
     private ViewModelProvider viewModelProvider;
@@ -68,14 +85,21 @@ public class CanvasFragment extends Fragment {
     private int currentSizeButtonId;
     private int currentPenButtonId;
     private Handler roundEndHandler;
+    // The drawing is journaled on disk as it's drawn, so it can be replayed if the process is killed
+    private String journalName;
+    private StrokeJournal journal;
+    private boolean restoringState;
+    // The strokes as they were when the speculative drawing was sent, null if it hasn't been
+    private List<Stroke> speculativeStrokes;
 
     public CanvasFragment() {}
 
-    public static CanvasFragment newInstance(Bitmap parentBitmap, long deadline) {
+    // parentBitmapKey is the key of the parent's bitmap in the ImageStore, or null if there is no parent
+    public static CanvasFragment newInstance(String parentBitmapKey, long deadline) {
         CanvasFragment canvasFragment = new CanvasFragment();
 
         Bundle args = new Bundle();
-        args.putParcelable(TAG_PARENT_DOODLE, parentBitmap);
+        args.putString(TAG_PARENT_DOODLE, parentBitmapKey);
         args.putLong(TAG_TIME_CUR_ROUND_ENDS, deadline);
         canvasFragment.setArguments(args);
 
@@ -84,7 +108,10 @@ public class CanvasFragment extends Fragment {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
-        parentBitmap = getArguments().getParcelable(TAG_PARENT_DOODLE);
+        parentBitmapKey = getArguments().getString(TAG_PARENT_DOODLE);
+        restoringState = savedInstanceState != null;
+        if (restoringState) journalName = savedInstanceState.getString(TAG_JOURNAL_NAME);
+        if (journalName == null) journalName = UUID.randomUUID().toString();
         super.onCreate(savedInstanceState);
     }
 
@@ -101,6 +128,10 @@ public class CanvasFragment extends Fragment {
         // Initialize the views in the layout
         parentImageView = view.findViewById(R.id.parentImageView);
         doodleDrawView = view.findViewById(R.id.doodleDrawView);
+        // The host activity hears how smoothly each stroke was drawn if it wants to
+        if (getActivity() instanceof StrokeMetrics.Listener) {
+            doodleDrawView.setMetricsListener((StrokeMetrics.Listener) getActivity());
+        }
         undoButton = view.findViewById(R.id.undoButton);
         redoButton = view.findViewById(R.id.redoButton);
         smallButton = view.findViewById(R.id.smallButton);
@@ -123,18 +154,14 @@ public class CanvasFragment extends Fragment {
         currentSizeButtonId = canvasViewModel.getSelectedSizeButtonId().getValue();
         currentPenButtonId = canvasViewModel.getSelectedPenButtonId().getValue();
         roundEndHandler = new Handler(Looper.getMainLooper());
+        journal = StrokeJournal.open(requireContext(), journalName);
 
         // Set up parent ImageView (if parentDoodle exists)
-        // Get parent doodle from intent
-        Bitmap parentBitmap = getArguments().getParcelable(TAG_PARENT_DOODLE);
-        if (parentBitmap != null) {
-            AnimationDrawable loadingDrawable = (AnimationDrawable) getResources().getDrawable(R.drawable.loading_circle, getActivity().getTheme());
-            loadingDrawable.start();
-            Glide.with(this)
-                    .load(parentBitmap)
-                    .placeholder(loadingDrawable)
-                    .into(parentImageView);
-        }
+        // Get parent doodle from the ImageStore, which only reads it back from disk if the process was restarted
+        ImageStore.get().load(parentBitmapKey, parentBitmap -> {
+            // It is already decoded, and may come from the BitmapPool, so it is shown as is rather than handed to Glide
+            if (parentBitmap != null && getView() != null) parentImageView.setImageBitmap(parentBitmap);
+        });
 
         // Set timer to send result back to parent activity by the deadline, if the deadline exists
         long timeCurRoundEnds = getArguments().getLong(TAG_TIME_CUR_ROUND_ENDS);
@@ -144,6 +171,10 @@ public class CanvasFragment extends Fragment {
             long timeLeftInRoundMillis = timeCurRoundEnds - System.currentTimeMillis();
             // Set the handler to send the result at the end of the round
             roundEndHandler.postDelayed(sendResultToParentActivity, timeLeftInRoundMillis);
+            // Every player's drawing is processed at the deadline, so most of the work is started a little before it
+            if (timeLeftInRoundMillis > SPECULATION_LEAD_MILLIS) {
+                roundEndHandler.postDelayed(sendSpeculativeResultToParentActivity, timeLeftInRoundMillis - SPECULATION_LEAD_MILLIS);
+            }
         }
 
         // Set up color picker fragment
@@ -220,13 +251,30 @@ public class CanvasFragment extends Fragment {
     public void onSaveInstanceState(@NonNull @NotNull Bundle outState) {
         super.onSaveInstanceState(outState);
 
-        canvasViewModel.setPaths(doodleDrawView.getMPaths());
+        outState.putString(TAG_JOURNAL_NAME, journalName);
+        canvasViewModel.setStrokes(doodleDrawView.getStrokes());
         canvasViewModel.setColorPickerIsExpanded(colorPickerExpandableLayout.isExpanded());
 
         // Kill the handler, the recreated fragment will have a new one
         roundEndHandler.removeCallbacksAndMessages(null);
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        doodleDrawView.setJournal(null);
+        journal.close();
+        // The host activity reuses the parent once the view is gone, so nothing may draw it from here on
+        parentImageView.setImageDrawable(null);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // The drawing is abandoned unless the fragment is only being recreated
+        if (journal != null && (isRemoving() || requireActivity().isFinishing())) journal.delete();
+    }
+
     // Put result doodle in bundle to send back to parent activity
     private Runnable sendResultToParentActivity = new Runnable() {
         @Override
@@ -234,15 +282,53 @@ public class CanvasFragment extends Fragment {
             doneButton.setEnabled(false);
 
             Bundle result = new Bundle();
-            result.putParcelable(TAG_DRAWING_BITMAP, doodleDrawView.getBitmap());
+            String drawingBitmapKey = ImageStore.get().put(doodleDrawView.getBitmap());
+            result.putString(TAG_DRAWING_BITMAP, drawingBitmapKey);
+            // In the background the result waits for the activity to start again, and may be saved with its state meanwhile
+            if (!getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) ImageStore.get().persist(drawingBitmapKey);
+            // Also send the strokes themselves, which are a fraction of the size of the bitmap
+            List<Stroke> strokes = doodleDrawView.getStrokes();
+            result.putByteArray(TAG_DRAWING_STROKES, StrokeCodec.encode(strokes, doodleDrawView.getWidth(), doodleDrawView.getHeight()));
+            result.putParcelable(TAG_DRAWING_BOUNDS, new StrokeDrawing(doodleDrawView.getWidth(), doodleDrawView.getHeight(), strokes).getBounds());
+            List<Stroke> newStrokes = getStrokesAddedSince(speculativeStrokes, strokes);
+            if (newStrokes != null) {
+                result.putByteArray(TAG_DRAWING_NEW_STROKES, StrokeCodec.encode(newStrokes, doodleDrawView.getWidth(), doodleDrawView.getHeight()));
+            }
             getParentFragmentManager().setFragmentResult(TAG_RESULT_DOODLE, result);
 
+            // The drawing has been handed over, so there's nothing left to restore
+            doodleDrawView.setJournal(null);
+            journal.delete();
+
             // Reset the ViewModels
             colorViewModel.clear();
             canvasViewModel.clear();
         }
     };
 
+    // Send the drawing so far to the parent activity, which may start processing it before the real result comes
+    private Runnable sendSpeculativeResultToParentActivity = new Runnable() {
+        @Override
+        public void run() {
+            speculativeStrokes = doodleDrawView.getStrokes();
+
+            Bundle result = new Bundle();
+            result.putString(TAG_DRAWING_BITMAP, ImageStore.get().put(doodleDrawView.getBitmap()));
+            result.putParcelable(TAG_DRAWING_BOUNDS, new StrokeDrawing(doodleDrawView.getWidth(), doodleDrawView.getHeight(), speculativeStrokes).getBounds());
+            getParentFragmentManager().setFragmentResult(TAG_SPECULATIVE_DOODLE, result);
+        }
+    };
+
+    // Returns the strokes that were added after the earlier ones, or null if the earlier strokes
+    // aren't all still there in the same order, such as after an undo
+    private static List<Stroke> getStrokesAddedSince(List<Stroke> earlier, List<Stroke> strokes) {
+        if (earlier == null || earlier.size() > strokes.size()) return null;
+        for (int i = 0; i < earlier.size(); i++) {
+            if (earlier.get(i) != strokes.get(i)) return null;
+        }
+        return strokes.subList(earlier.size(), strokes.size());
+    }
+
     private void handleSizeButtonChange(Button button) {
         // Set the new values in the ViewModel
         canvasViewModel.selectSizeButton(button.getId());
@@ -286,7 +372,26 @@ public class CanvasFragment extends Fragment {
         getView().findViewById(currentPenButtonId).callOnClick();
 
         // Set up the DrawView and ColorPicker based on values saved in the CanvasViewModel
-        doodleDrawView.setMPaths(canvasViewModel.getPaths().getValue());
+        // If the process was killed, the ViewModel comes back empty, so the strokes are replayed from the journal
+        List<Stroke> strokes = canvasViewModel.getStrokes().getValue();
+        boolean fromJournal = restoringState && strokes.isEmpty();
+        if (fromJournal) {
+            // The journal is read on its own thread, anything drawn in the meantime is journaled after the records
+            // that are being read, so it goes on top of the replayed strokes
+            journal.read(journaledStrokes -> {
+                if (getView() == null || journaledStrokes.isEmpty()) return;
+                List<Stroke> restoredStrokes = new ArrayList<>(journaledStrokes);
+                restoredStrokes.addAll(doodleDrawView.getStrokes());
+                doodleDrawView.setStrokes(restoredStrokes);
+            });
+        }
+        else {
+            doodleDrawView.setStrokes(strokes);
+        }
+        // Strokes from the ViewModel may not be in the journal yet, such as when the fragment is new but the
+        // ViewModel isn't, so they're written into it before anything else is
+        if (!fromJournal && !strokes.isEmpty()) journal.reset(strokes);
+        doodleDrawView.setJournal(journal);
         if (canvasViewModel.getColorPickerIsExpanded().getValue()) colorPickerExpandableLayout.expand(false);
         else colorPickerExpandableLayout.collapse(false);
     }
@@ -1,5 +1,6 @@
 package com.example.doodle.fragments;
 
+import android.content.Context;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
@@ -20,6 +21,13 @@ import org.jetbrains.annotations.NotNull;
 
 public class ColorPickerFragment extends Fragment {
     public static final String TAG = "ColorPickerFragment";
+    // Every color the user can pick, in the order of the buttons
+    public static final int[] COLOR_STATE_LIST_IDS = {
+            R.color.button_pink, R.color.button_red, R.color.button_orange, R.color.button_yellow_orange,
+            R.color.button_yellow, R.color.button_light_green, R.color.button_dark_green, R.color.button_teal,
+            R.color.button_light_blue, R.color.button_dark_blue, R.color.button_purple, R.color.button_brown,
+            R.color.button_grey, R.color.button_black
+    };
 
     // Views in the layout
     private Button pinkButton;
@@ -103,6 +111,15 @@ public class ColorPickerFragment extends Fragment {
         view.findViewById(currentColorButtonId).callOnClick();
     }
 
+    // Returns the ARGB value the canvas draws with for every color the user can pick
+    public static int[] getPalette(Context context) {
+        int[] palette = new int[COLOR_STATE_LIST_IDS.length];
+        for (int i = 0; i < COLOR_STATE_LIST_IDS.length; i++) {
+            palette[i] = context.getResources().getColorStateList(COLOR_STATE_LIST_IDS[i], context.getTheme()).getDefaultColor();
+        }
+        return palette;
+    }
+
     // Makes the currently selected button have the foreground icon
     public void handleClick(Button button, int colorStateListId) {
         // Set the new values in the ViewModel
@@ -0,0 +1,122 @@
+package com.example.doodle.imaging;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+// Keeps bitmaps that are no longer needed so the next one of the same size can reuse their memory
+// Every round decodes a parent, composites it with the drawing and throws both away, always at the same size,
+// so handing those bitmaps back here means later rounds allocate next to nothing
+public class BitmapPool {
+    public static final String TAG = "BitmapPool";
+    // Never hold on to more than this share of the heap
+    public static final int MAX_HEAP_FRACTION = 8;
+
+    private static BitmapPool instance;
+
+    private final long maxBytes;
+    private final Map<Key, ArrayDeque<Bitmap>> bitmapsByKey = new HashMap<>();
+    // Pooled bitmaps in the order they were put back, oldest first, for eviction
+    private final LinkedHashSet<Bitmap> lruOrder = new LinkedHashSet<>();
+    private long currentBytes;
+
+    public static synchronized BitmapPool get() {
+        if (instance == null) instance = new BitmapPool(Runtime.getRuntime().maxMemory() / MAX_HEAP_FRACTION);
+        return instance;
+    }
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Returns a cleared, mutable bitmap of exactly this size and config, reusing a pooled one if possible
+    public Bitmap getCleared(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap != null) {
+            bitmap.eraseColor(0);
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    // Returns a pooled bitmap of exactly this size and config without clearing it, or null if there is none
+    public synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bitmaps = bitmapsByKey.get(new Key(width, height, config));
+        if (bitmaps == null || bitmaps.isEmpty()) return null;
+        Bitmap bitmap = bitmaps.pop();
+        lruOrder.remove(bitmap);
+        currentBytes -= bitmap.getAllocationByteCount();
+        return bitmap;
+    }
+
+    // Gives a bitmap back to the pool, the caller must not use it afterwards
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || lruOrder.contains(bitmap)) return;
+        int size = bitmap.getAllocationByteCount();
+        if (size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bitmaps = bitmapsByKey.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            bitmapsByKey.put(key, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        lruOrder.add(bitmap);
+        currentBytes += size;
+        trimToSize(maxBytes);
+    }
+
+    // Releases pooled bitmaps when the system is running low on memory, see ComponentCallbacks2
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) trimToSize(0);
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) trimToSize(maxBytes / 2);
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private synchronized void trimToSize(long size) {
+        Iterator<Bitmap> oldest = lruOrder.iterator();
+        while (currentBytes > size && oldest.hasNext()) {
+            Bitmap bitmap = oldest.next();
+            oldest.remove();
+            bitmapsByKey.get(new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig())).remove(bitmap);
+            currentBytes -= bitmap.getAllocationByteCount();
+            bitmap.recycle();
+        }
+    }
+
+    private static class Key {
+        private final int width;
+        private final int height;
+        private final Bitmap.Config config;
+
+        Key(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return width == other.width && height == other.height && config == other.config;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + (config == null ? 0 : config.hashCode());
+        }
+    }
+}
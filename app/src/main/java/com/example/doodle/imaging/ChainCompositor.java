@@ -0,0 +1,168 @@
+package com.example.doodle.imaging;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.example.doodle.NamedThreadFactory;
+import com.example.doodle.models.Doodle;
+import com.parse.ParseException;
+import com.parse.ParseFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Assembles the image of a doodle whose contributions were stored as separate layers
+// A layer-only doodle's image holds just the strokes its artist added on a transparent background,
+// so its full image is the nearest flattened ancestor with every layer after it drawn on top, in order
+// A layer may be cropped to the part of the canvas its artist drew on, in which case it's placed at its recorded offset
+// Decoded layers are cached, so neighbouring doodles of the same chain only decode their own layer
+public class ChainCompositor {
+    public static final String TAG = "ChainCompositor";
+    // Never hold on to more than this share of the heap
+    public static final int MAX_HEAP_FRACTION = 16;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("ChainCompositor"));
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final LruCache<String, Layer> layerCache = new LruCache<String, Layer>(
+            (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / MAX_HEAP_FRACTION)) {
+        @Override
+        protected int sizeOf(String key, Layer layer) {
+            return layer.bitmap.getAllocationByteCount();
+        }
+    };
+
+    public interface Callback {
+        // Called on the main thread with the composited image, or with the exception that stopped it
+        void done(Bitmap bitmap, Exception e);
+    }
+
+    // Returns the doodles that make up this doodle's image, from its nearest flattened ancestor to itself
+    public static List<Doodle> findChain(Doodle doodle) throws ParseException {
+        List<Doodle> chain = new ArrayList<>();
+        Doodle current = doodle;
+        while (current != null) {
+            current.fetchIfNeeded();
+            chain.add(current);
+            if (!current.getIsLayer()) break;
+            current = current.getParent();
+        }
+        Collections.reverse(chain);
+        return chain;
+    }
+
+    // Composites the last doodle of the chain, which is ordered root first like a doodle's history
+    // visible may hide individual layers by their position in the chain, null shows them all
+    // Doodles up to and including the nearest flattened one are baked into its image, so they can't be hidden
+    // The result is a new bitmap fitting inside size x size that belongs to the caller
+    public static Bitmap composite(List<Doodle> chain, boolean[] visible, int size) throws ParseException {
+        int base = chain.size() - 1;
+        while (base > 0 && chain.get(base).fetchIfNeeded().getIsLayer()) base--;
+
+        Bitmap baseLayer = getLayer(chain.get(base), size, size, 1).bitmap;
+        Bitmap result = Bitmap.createBitmap(baseLayer.getWidth(), baseLayer.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(result);
+        Rect bounds = new Rect(0, 0, result.getWidth(), result.getHeight());
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        canvas.drawBitmap(baseLayer, null, bounds, paint);
+        for (int i = base + 1; i < chain.size(); i++) {
+            if (visible != null && !visible[i]) continue;
+            drawLayer(canvas, chain.get(i), bounds, paint);
+        }
+        return result;
+    }
+
+    // Finds the doodle's chain and composites it on a background thread
+    public static void compositeInBackground(Doodle doodle, int size, Callback callback) {
+        executor.execute(() -> {
+            try {
+                post(callback, composite(findChain(doodle), null, size), null);
+            } catch (ParseException | RuntimeException e) {
+                post(callback, null, e);
+            }
+        });
+    }
+
+    // Composites an already known chain on a background thread, see composite
+    public static void compositeInBackground(List<Doodle> chain, boolean[] visible, int size, Callback callback) {
+        List<Doodle> chainCopy = new ArrayList<>(chain);
+        boolean[] visibleCopy = visible == null ? null : visible.clone();
+        executor.execute(() -> {
+            try {
+                post(callback, composite(chainCopy, visibleCopy, size), null);
+            } catch (ParseException | RuntimeException e) {
+                post(callback, null, e);
+            }
+        });
+    }
+
+    // Draws a layer over the whole of bounds, or over its part of bounds if it's cropped
+    private static void drawLayer(Canvas canvas, Doodle doodle, Rect bounds, Paint paint) throws ParseException {
+        if (!doodle.getIsCropped()) {
+            canvas.drawBitmap(getLayer(doodle, bounds.width(), bounds.height(), 1).bitmap, null, bounds, paint);
+            return;
+        }
+
+        // The cropped image is decoded at the same scale as the rest of the composite and placed at its offset
+        float scale = bounds.width() / (float) doodle.getCanvasWidth();
+        Layer layer = getLayer(doodle, bounds.width(), bounds.height(), scale);
+        RectF destination = new RectF(0, 0, layer.imageWidth * scale, layer.imageHeight * scale);
+        destination.offset(bounds.left + doodle.getCropLeft() * scale, bounds.top + doodle.getCropTop() * scale);
+        canvas.drawBitmap(layer.bitmap, null, destination, paint);
+    }
+
+    // Returns the doodle's own image decoded at scale, but no bigger than maxWidth x maxHeight,
+    // from the cache if it was decoded for the same size before
+    // Cached layers are shared, so they're only ever drawn from and never handed out
+    private static Layer getLayer(Doodle doodle, int maxWidth, int maxHeight, float scale) throws ParseException {
+        String key = doodle.getObjectId() + "@" + maxWidth + "x" + maxHeight;
+        Layer layer = layerCache.get(key);
+        if (layer != null) return layer;
+
+        byte[] data = getImageData(doodle);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        int width = Math.min(maxWidth, Math.max(1, Math.round(options.outWidth * scale)));
+        int height = Math.min(maxHeight, Math.max(1, Math.round(options.outHeight * scale)));
+
+        Bitmap bitmap = ImageCodecs.forName(doodle.getImageCodec()).decode(data, width, height);
+        if (bitmap == null) throw new ParseException(ParseException.OTHER_CAUSE, "Couldn't decode the image of doodle " + doodle.getObjectId());
+        layer = new Layer(bitmap, options.outWidth, options.outHeight);
+        layerCache.put(key, layer);
+        return layer;
+    }
+
+    // Parse keeps downloaded files on disk, so asking again for an image that was already fetched is cheap
+    private static byte[] getImageData(Doodle doodle) throws ParseException {
+        ParseFile image = doodle.getImage();
+        if (image == null) throw new ParseException(ParseException.OBJECT_NOT_FOUND, "Doodle " + doodle.getObjectId() + " has no image");
+        return image.getData();
+    }
+
+    private static void post(Callback callback, Bitmap bitmap, Exception e) {
+        mainHandler.post(() -> callback.done(bitmap, e));
+    }
+
+    // A decoded image together with the size it was stored at
+    private static class Layer {
+        private final Bitmap bitmap;
+        private final int imageWidth;
+        private final int imageHeight;
+
+        Layer(Bitmap bitmap, int imageWidth, int imageHeight) {
+            this.bitmap = bitmap;
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageHeight;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.doodle.imaging;
+
+// The bytes of an encoded image together with the codec that produced them
+public class EncodedImage {
+    private final ImageCodec codec;
+    private final byte[] data;
+
+    public EncodedImage(ImageCodec codec, byte[] data) {
+        this.codec = codec;
+        this.data = data;
+    }
+
+    public ImageCodec getCodec() {
+        return codec;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.doodle.imaging;
+
+import android.graphics.Bitmap;
+
+// A way of turning a bitmap into bytes and back
+// The name of the codec is stored with every doodle so readers know how its image was written
+public interface ImageCodec {
+    String getName();
+
+    String getFileExtension();
+
+    // Returns null if this codec can't encode the bitmap, so the caller can fall back to another codec
+    byte[] encode(Bitmap bitmap);
+
+    // Decodes the image to fit inside targetWidth x targetHeight, or at full size if they are 0
+    Bitmap decode(byte[] data, int targetWidth, int targetHeight);
+}
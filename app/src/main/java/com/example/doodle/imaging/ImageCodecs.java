@@ -0,0 +1,44 @@
+package com.example.doodle.imaging;
+
+import android.graphics.Bitmap;
+
+// Looks up codecs by the name stored on a doodle and picks the best one for a new image
+public class ImageCodecs {
+    public static final String TAG = "ImageCodecs";
+
+    public static final ImageCodec PNG = new PngCodec();
+    public static final ImageCodec WEBP_LOSSLESS = new WebpLosslessCodec();
+    // Indexed PNGs are plain PNGs to a decoder, so reading one doesn't need the palette
+    private static final ImageCodec PNG_INDEXED = new IndexedPngCodec(new int[0]);
+
+    // Returns the codec that wrote an image, doodles saved before codecs were recorded are PNG
+    public static ImageCodec forName(String name) {
+        if (name == null) return PNG;
+        switch (name) {
+            case WebpLosslessCodec.NAME:
+                return WEBP_LOSSLESS;
+            case IndexedPngCodec.NAME:
+                return PNG_INDEXED;
+            default:
+                return PNG;
+        }
+    }
+
+    // Encodes a bitmap losslessly with the smallest codec that applies to it:
+    // indexed PNG if it has few enough colors, then lossless WebP where the device supports it, then PNG
+    public static EncodedImage encode(Bitmap bitmap, int[] palette) {
+        ImageCodec indexed = new IndexedPngCodec(palette);
+        byte[] data = indexed.encode(bitmap);
+        if (data != null) return new EncodedImage(indexed, data);
+
+        data = WEBP_LOSSLESS.encode(bitmap);
+        if (data != null) return new EncodedImage(WEBP_LOSSLESS, data);
+
+        return new EncodedImage(PNG, PNG.encode(bitmap));
+    }
+
+    // Rough size of a compressed doodle, used to size output buffers so they don't have to grow and copy
+    static int estimateEncodedSize(Bitmap bitmap) {
+        return Math.max(32 * 1024, bitmap.getWidth() * bitmap.getHeight() / 4);
+    }
+}
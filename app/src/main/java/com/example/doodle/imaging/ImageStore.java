@@ -0,0 +1,219 @@
+package com.example.doodle.imaging;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.doodle.NamedThreadFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Holds bitmaps in memory under short string keys, so fragments and activities can hand them to each other
+// by putting the key in a Bundle instead of parcelling the pixels through Binder
+// A bitmap stays in memory until its key is taken or removed, every key has an owner that does so, and nothing is
+// evicted on its own, since a screen that lost its bitmap would go on without it
+// Bitmaps only live in memory unless they are persisted, which the screens do for the keys they put in their instance
+// state, so those keys still find their bitmaps after the process has been killed and restarted
+// get and take never touch the disk, a screen restoring its state uses load or the take with a callback instead,
+// which read a persisted bitmap back off the main thread
+public class ImageStore {
+    public static final String TAG = "ImageStore";
+    // Persisted files older than this are left over from earlier sessions and are deleted on start up
+    public static final long MAX_FILE_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final String DIRECTORY_NAME = "image_store";
+    private static final String FILE_EXTENSION = ".png";
+
+    private static ImageStore instance;
+
+    public interface Callback {
+        // Called on the main thread with the bitmap, or null if there is none
+        void done(Bitmap bitmap);
+    }
+
+    private final File directory;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Bitmap> bitmaps = new ConcurrentHashMap<>();
+    // Disk writes and deletes share one thread, so a file is never deleted before it has been written
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("ImageStore"));
+    private final Map<String, Future<?>> pendingWrites = new HashMap<>();
+    // Keys that have been written, or are about to be, so saving the same instance state again doesn't rewrite them
+    private final Set<String> persistedKeys = new HashSet<>();
+
+    // Called once from ParseApplication
+    public static synchronized void init(Context context) {
+        if (instance == null) instance = new ImageStore(new File(context.getCacheDir(), DIRECTORY_NAME));
+    }
+
+    public static ImageStore get() {
+        if (instance == null) throw new IllegalStateException("ImageStore.init has not been called");
+        return instance;
+    }
+
+    private ImageStore(File directory) {
+        this.directory = directory;
+        diskExecutor.execute(this::deleteOldFiles);
+    }
+
+    // Stores the bitmap and returns the key to fetch it with, the bitmap must not be changed afterwards
+    public String put(Bitmap bitmap) {
+        String key = UUID.randomUUID().toString();
+        bitmaps.put(key, bitmap);
+        return key;
+    }
+
+    // Writes the bitmap stored under the key to disk in the background, called when the key is saved in an instance state
+    // The pixels are copied first, so whoever takes the bitmap afterwards is free to change or pool it mid-write
+    public void persist(String key) {
+        if (key == null) return;
+        Bitmap bitmap = bitmaps.get(key);
+        if (bitmap == null || bitmap.isRecycled()) return;
+        synchronized (pendingWrites) {
+            if (!persistedKeys.add(key)) return;
+            Bitmap.Config config = bitmap.getConfig() == null ? Bitmap.Config.ARGB_8888 : bitmap.getConfig();
+            Bitmap copy = BitmapPool.get().getCleared(bitmap.getWidth(), bitmap.getHeight(), config);
+            new Canvas(copy).drawBitmap(bitmap, 0, 0, null);
+            pendingWrites.put(key, diskExecutor.submit(() -> write(key, copy)));
+        }
+    }
+
+    // Stores the bitmap under a key that was handed out before, such as one restored from an instance state
+    // whose bitmap couldn't be read back
+    public void put(String key, Bitmap bitmap) {
+        bitmaps.put(key, bitmap);
+    }
+
+    // Returns the bitmap stored under the key if it is in memory, or null if it isn't, see load
+    // The bitmap stays in the store and must not be changed
+    public Bitmap get(String key) {
+        if (key == null) return null;
+        return bitmaps.get(key);
+    }
+
+    // Like get, but reads the bitmap back from disk if it was persisted and is no longer in memory, the callback is
+    // made right away if it is in memory and on the main thread once it has been read otherwise
+    public void load(String key, Callback callback) {
+        Bitmap bitmap = get(key);
+        if (bitmap != null || key == null) {
+            callback.done(bitmap);
+            return;
+        }
+        diskExecutor.execute(() -> {
+            Bitmap loaded = bitmaps.get(key) == null ? read(key) : null;
+            mainHandler.post(() -> {
+                // It may have been loaded, or put back, while this one was reading
+                Bitmap cached = bitmaps.get(key);
+                if (cached != null) {
+                    callback.done(cached);
+                    return;
+                }
+                if (loaded != null) {
+                    bitmaps.put(key, loaded);
+                    // The file is already there, in case the key is saved again
+                    synchronized (pendingWrites) {
+                        persistedKeys.add(key);
+                    }
+                }
+                callback.done(loaded);
+            });
+        });
+    }
+
+    // Removes the bitmap stored under the key if it is in memory and returns it, the caller owns it from then on
+    public Bitmap take(String key) {
+        Bitmap bitmap = get(key);
+        remove(key);
+        return bitmap;
+    }
+
+    // Like take, but reads the bitmap back from disk if need be, see load
+    public void take(String key, Callback callback) {
+        load(key, bitmap -> {
+            remove(key);
+            callback.done(bitmap);
+        });
+    }
+
+    public void remove(String key) {
+        if (key == null) return;
+        bitmaps.remove(key);
+        synchronized (pendingWrites) {
+            if (!persistedKeys.remove(key)) return;
+            // A write that has already started finishes before the file is deleted, they share a thread
+            Future<?> pendingWrite = pendingWrites.remove(key);
+            if (pendingWrite != null) pendingWrite.cancel(false);
+        }
+        diskExecutor.execute(() -> {
+            if (!fileFor(key).delete()) Log.d(TAG, "No file to delete for " + key);
+        });
+    }
+
+    // Writes the store's own copy of a bitmap, which nothing else can change, and pools it afterwards
+    private void write(String key, Bitmap copy) {
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) return;
+            File file = fileFor(key);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                copy.compress(Bitmap.CompressFormat.PNG, 100, out);
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't write " + file, e);
+                file.delete();
+            }
+        } finally {
+            synchronized (pendingWrites) {
+                pendingWrites.remove(key);
+            }
+            BitmapPool.get().put(copy);
+        }
+    }
+
+    private Bitmap read(String key) {
+        File file = fileFor(key);
+        if (!file.isFile()) return null;
+
+        byte[] data = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < data.length) {
+                int count = in.read(data, offset, data.length - offset);
+                if (count < 0) return null;
+                offset += count;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't read " + file, e);
+            return null;
+        }
+        return SampledDecoder.decode(data);
+    }
+
+    private void deleteOldFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        long oldest = System.currentTimeMillis() - MAX_FILE_AGE_MILLIS;
+        for (File file : files) {
+            if (file.lastModified() < oldest) file.delete();
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, key + FILE_EXTENSION);
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.doodle.imaging;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Palette-indexed PNG for images with at most 256 distinct colors
+// Doodles are drawn with the handful of colors offered by the color picker on a transparent background, so the palette
+// only holds the colors the image actually uses, and each pixel is stored in 1, 2, 4 or 8 bits instead of 32,
+// depending on how many that is
+// Antialiased edges blend colors into many more than 256 on most composites, so a sample of the rows is checked first,
+// and the image is only indexed in full if the sample fits
+public class IndexedPngCodec implements ImageCodec {
+    public static final String NAME = "png-indexed";
+    public static final int MAX_COLORS = 256;
+    // Every this many rows are checked before the whole image is indexed
+    public static final int SAMPLE_ROW_STRIDE = 16;
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int COLOR_TYPE_INDEXED = 3;
+
+    private final int[] seedPalette;
+
+    // seedPalette holds ARGB colors that are likely to appear in the image, the ones that do get the lowest indices
+    // after transparent, in the same order, so a color has the same index in every image drawn with the same picker
+    public IndexedPngCodec(int[] seedPalette) {
+        this.seedPalette = seedPalette;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "png";
+    }
+
+    @Override
+    public byte[] encode(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+
+        // Only colors that are used go into the palette, the sampled rows' colors are all in the full image too
+        Palette palette = new Palette();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y += SAMPLE_ROW_STRIDE) {
+            if (!indexRow(bitmap, y, row, palette, null)) return null;
+        }
+
+        // Index every pixel, giving up on the first row with too many colors
+        byte[] indices = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            if (!indexRow(bitmap, y, row, palette, indices)) return null;
+        }
+
+        int[] firstColors = new int[seedPalette.length + 1];
+        firstColors[0] = Color.TRANSPARENT;
+        System.arraycopy(seedPalette, 0, firstColors, 1, seedPalette.length);
+        int[] remap = palette.moveToFront(firstColors);
+
+        try {
+            return write(width, height, palette, indices, remap);
+        } catch (IOException e) {
+            // Only writes to memory, so this can't really happen
+            throw new IllegalStateException("Couldn't write indexed PNG", e);
+        }
+    }
+
+    @Override
+    public Bitmap decode(byte[] data, int targetWidth, int targetHeight) {
+        return SampledDecoder.decode(data, targetWidth, targetHeight);
+    }
+
+    // Adds the colors of row y to the palette, and stores their indices if indices isn't null
+    // Returns false if the palette has run out of room
+    private static boolean indexRow(Bitmap bitmap, int y, int[] row, Palette palette, byte[] indices) {
+        int width = row.length;
+        bitmap.getPixels(row, 0, width, 0, y, width, 1);
+        int lastColor = 0;
+        int lastIndex = -1;
+        for (int x = 0; x < width; x++) {
+            int color = row[x];
+            // Fully transparent pixels look the same whatever their color channels are
+            if (Color.alpha(color) == 0) color = Color.TRANSPARENT;
+            if (color != lastColor || lastIndex < 0) {
+                lastIndex = palette.indexOf(color);
+                if (lastIndex < 0) return false;
+                lastColor = color;
+            }
+            if (indices != null) indices[y * width + x] = (byte) lastIndex;
+        }
+        return true;
+    }
+
+    // remap gives the index each pixel's palette index was moved to, see Palette.moveToFront
+    private static byte[] write(int width, int height, Palette palette, byte[] indices, int[] remap) throws IOException {
+        int bitDepth = bitDepthFor(palette.size());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(indices.length * bitDepth / 8 / 4 + 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(width);
+        headerOut.writeInt(height);
+        headerOut.writeByte(bitDepth);
+        headerOut.writeByte(COLOR_TYPE_INDEXED);
+        headerOut.writeByte(0); // Deflate compression
+        headerOut.writeByte(0); // Adaptive filtering
+        headerOut.writeByte(0); // No interlacing
+        writeChunk(out, "IHDR", header.toByteArray());
+
+        byte[] rgb = new byte[palette.size() * 3];
+        byte[] alpha = new byte[palette.size()];
+        for (int i = 0; i < palette.size(); i++) {
+            int color = palette.get(i);
+            rgb[i * 3] = (byte) Color.red(color);
+            rgb[i * 3 + 1] = (byte) Color.green(color);
+            rgb[i * 3 + 2] = (byte) Color.blue(color);
+            alpha[i] = (byte) Color.alpha(color);
+        }
+        writeChunk(out, "PLTE", rgb);
+        writeChunk(out, "tRNS", alpha);
+
+        // Palette images compress best without filtering, so every row uses filter type 0
+        ByteArrayOutputStream imageData = new ByteArrayOutputStream(indices.length / 8 + 1024);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(imageData, deflater)) {
+            byte[] packedRow = new byte[1 + (width * bitDepth + 7) / 8];
+            int pixelsPerByte = 8 / bitDepth;
+            for (int y = 0; y < height; y++) {
+                Arrays.fill(packedRow, (byte) 0);
+                int rowStart = y * width;
+                for (int x = 0; x < width; x++) {
+                    int index = remap[indices[rowStart + x] & 0xFF];
+                    int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+                    packedRow[1 + x / pixelsPerByte] |= (byte) (index << shift);
+                }
+                deflated.write(packedRow);
+            }
+        } finally {
+            deflater.end();
+        }
+        writeChunk(out, "IDAT", imageData.toByteArray());
+        writeChunk(out, "IEND", new byte[0]);
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static int bitDepthFor(int numColors) {
+        if (numColors <= 2) return 1;
+        if (numColors <= 4) return 2;
+        if (numColors <= 16) return 4;
+        return 8;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Color to index lookup with open addressing, since it is hit for every change of color along a row
+    private static class Palette {
+        private static final int TABLE_SIZE = 1024;
+
+        private final int[] colors = new int[MAX_COLORS];
+        private final int[] tableColors = new int[TABLE_SIZE];
+        // Index + 1 of the color in each slot, 0 for an empty slot
+        private final int[] tableIndices = new int[TABLE_SIZE];
+        private int size;
+
+        // Returns the index of the color, adding it if there is room, or -1 if the palette is full
+        int indexOf(int color) {
+            int slot = findSlot(color);
+            if (tableIndices[slot] != 0) return tableIndices[slot] - 1;
+            if (size == MAX_COLORS) return -1;
+            colors[size] = color;
+            tableColors[slot] = color;
+            tableIndices[slot] = ++size;
+            return size - 1;
+        }
+
+        // Moves the colors that are in the palette to the lowest indices, in the given order, and the rest after them
+        // in the order they were added, then returns the new index of each old one
+        // Only called once the image has been indexed, the lookup still has the old indices afterwards
+        int[] moveToFront(int[] firstColors) {
+            int[] remap = new int[size];
+            boolean[] moved = new boolean[size];
+            int[] reordered = new int[size];
+            int next = 0;
+            for (int color : firstColors) {
+                int slot = findSlot(color);
+                if (tableIndices[slot] == 0) continue;
+                int index = tableIndices[slot] - 1;
+                if (moved[index]) continue;
+                moved[index] = true;
+                remap[index] = next;
+                reordered[next++] = color;
+            }
+            for (int i = 0; i < size; i++) {
+                if (moved[i]) continue;
+                remap[i] = next;
+                reordered[next++] = colors[i];
+            }
+            System.arraycopy(reordered, 0, colors, 0, size);
+            return remap;
+        }
+
+        // The slot holding the color, or the empty slot it would go in
+        private int findSlot(int color) {
+            int slot = (color * 0x9E3779B9) >>> 22;
+            while (tableIndices[slot] != 0 && tableColors[slot] != color) slot = (slot + 1) & (TABLE_SIZE - 1);
+            return slot;
+        }
+
+        int get(int index) {
+            return colors[index];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
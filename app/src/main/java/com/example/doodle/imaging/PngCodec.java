@@ -0,0 +1,32 @@
+package com.example.doodle.imaging;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+
+// Plain 32-bit PNG, which is what every doodle was stored as before codecs were recorded
+public class PngCodec implements ImageCodec {
+    public static final String NAME = "png";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "png";
+    }
+
+    @Override
+    public byte[] encode(Bitmap bitmap) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(ImageCodecs.estimateEncodedSize(bitmap));
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, bytes);
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Bitmap decode(byte[] data, int targetWidth, int targetHeight) {
+        return SampledDecoder.decode(data, targetWidth, targetHeight);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.doodle.imaging;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.Log;
+
+// Decodes images straight to the size they will be drawn at, into bitmaps from the BitmapPool
+public class SampledDecoder {
+    public static final String TAG = "SampledDecoder";
+
+    // Decodes the image at its stored resolution
+    public static Bitmap decode(byte[] data) {
+        return decode(data, 0, 0);
+    }
+
+    // Decodes the image to fit inside targetWidth x targetHeight, keeping its aspect ratio
+    // A bigger image is decoded with the largest power of two sample size that keeps it at least as big as the target
+    // and then scaled down to the exact size, so its full resolution bitmap is never created
+    // An image that already fits is decoded as it is, since it gets scaled up for free when it's drawn
+    // A target size of 0 decodes at full size
+    public static Bitmap decode(byte[] data, int targetWidth, int targetHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) return null;
+
+        float scale = 1;
+        if (targetWidth > 0 && targetHeight > 0) {
+            scale = Math.min(targetWidth / (float) width, targetHeight / (float) height);
+        }
+        if (scale >= 1) return decodeSampled(data, options, width, height, 1);
+
+        int finalWidth = Math.max(1, Math.round(width * scale));
+        int finalHeight = Math.max(1, Math.round(height * scale));
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= finalWidth && height / (sampleSize * 2) >= finalHeight) {
+            sampleSize *= 2;
+        }
+
+        Bitmap sampled = decodeSampled(data, options, width, height, sampleSize);
+        if (sampled == null || (sampled.getWidth() == finalWidth && sampled.getHeight() == finalHeight)) return sampled;
+
+        // Scale the rest of the way into a pooled bitmap, and give the sampled one back
+        BitmapPool pool = BitmapPool.get();
+        Bitmap scaled = pool.getCleared(finalWidth, finalHeight, Bitmap.Config.ARGB_8888);
+        Matrix matrix = new Matrix();
+        matrix.setScale(finalWidth / (float) sampled.getWidth(), finalHeight / (float) sampled.getHeight());
+        new Canvas(scaled).drawBitmap(sampled, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        pool.put(sampled);
+        return scaled;
+    }
+
+    // Decodes with the given sample size, reusing a pooled bitmap of the expected size if there is one
+    private static Bitmap decodeSampled(byte[] data, BitmapFactory.Options options, int width, int height, int sampleSize) {
+        BitmapPool pool = BitmapPool.get();
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = pool.take(width / sampleSize, height / sampleSize, Bitmap.Config.ARGB_8888);
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The platform refused to decode into the pooled bitmap, so decode into a new one instead
+            Log.w(TAG, "Couldn't reuse bitmap for decoding", e);
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+}
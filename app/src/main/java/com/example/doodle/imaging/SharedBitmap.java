@@ -0,0 +1,37 @@
+package com.example.doodle.imaging;
+
+import android.graphics.Bitmap;
+
+// A bitmap read by several holders at once, such as a round's parent, which is on screen behind the canvas
+// while SubmissionPipelines composite it, and which nobody may change or pool while any of them still reads it
+// The bitmap goes back to the BitmapPool once every holder has released it, whichever thread that happens on
+public class SharedBitmap {
+    public static final String TAG = "SharedBitmap";
+
+    private final Bitmap bitmap;
+    private int holders = 1;
+
+    // The caller is the first holder
+    public SharedBitmap(Bitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    // Adds a holder, which must release the bitmap once it's done reading it
+    public synchronized Bitmap acquire() {
+        if (holders == 0) throw new IllegalStateException("Bitmap has already been released");
+        holders++;
+        return bitmap;
+    }
+
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    public void release() {
+        synchronized (this) {
+            if (holders == 0) return;
+            if (--holders > 0) return;
+        }
+        BitmapPool.get().put(bitmap);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.doodle.imaging;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import com.example.doodle.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Turns every pixel of one color in a bitmap transparent
+// The bitmap is edited in place, split into bands of rows that are processed in parallel on a small worker pool,
+// and the pixel buffer is kept around and reused by the next submission instead of being allocated every time
+public class TransparencyKeyer {
+    public static final String TAG = "TransparencyKeyer";
+    public static final int MAX_WORKERS = 4;
+    // Bands smaller than this are not worth handing to another thread
+    public static final int MIN_ROWS_PER_BAND = 64;
+
+    private static final int NUM_WORKERS = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+    private static final ExecutorService workers = Executors.newFixedThreadPool(NUM_WORKERS, new NamedThreadFactory("TransparencyKeyer"));
+
+    // Pixel buffer shared across calls, only ever used by one call at a time
+    private static int[] pixelBuffer;
+
+    // Replaces transparentColor with a fully transparent pixel
+    // Returns the bitmap itself if it could be edited in place, otherwise a mutable ARGB_8888 copy of it
+    public static synchronized Bitmap makeTransparent(Bitmap bitmap, int transparentColor) {
+        if (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+        }
+        bitmap.setHasAlpha(true);
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = obtainPixelBuffer(width * height);
+
+        int numBands = Math.max(1, Math.min(NUM_WORKERS, height / MIN_ROWS_PER_BAND));
+        int rowsPerBand = (height + numBands - 1) / numBands;
+        final Bitmap target = bitmap;
+
+        List<Callable<Void>> bands = new ArrayList<>(numBands);
+        for (int startRow = 0; startRow < height; startRow += rowsPerBand) {
+            final int bandStart = startRow;
+            final int bandRows = Math.min(rowsPerBand, height - startRow);
+            bands.add(() -> {
+                keyBand(target, pixels, transparentColor, bandStart, bandRows);
+                return null;
+            });
+        }
+
+        // Run the last band on this thread while the workers take the rest
+        Callable<Void> ownBand = bands.remove(bands.size() - 1);
+        List<Future<Void>> futures = new ArrayList<>(bands.size());
+        for (Callable<Void> band : bands) futures.add(workers.submit(band));
+        try {
+            ownBand.call();
+            for (Future<Void> future : futures) future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Keying a band of the bitmap failed", e.getCause());
+        } catch (InterruptedException e) {
+            for (Future<Void> future : futures) future.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            throw new RuntimeException("Keying a band of the bitmap failed", e);
+        }
+        return bitmap;
+    }
+
+    // Keys one band of rows, using the part of the buffer that lines up with those rows
+    private static void keyBand(Bitmap bitmap, int[] pixels, int transparentColor, int startRow, int numRows) {
+        int width = bitmap.getWidth();
+        int offset = startRow * width;
+        int end = offset + numRows * width;
+        bitmap.getPixels(pixels, offset, width, 0, startRow, width, numRows);
+
+        boolean changed = false;
+        for (int i = offset; i < end; i++) {
+            if (pixels[i] == transparentColor) {
+                pixels[i] = Color.TRANSPARENT;
+                changed = true;
+            }
+        }
+
+        // Bands that had nothing to key don't need to be written back
+        if (changed) bitmap.setPixels(pixels, offset, width, 0, startRow, width, numRows);
+    }
+
+    private static int[] obtainPixelBuffer(int size) {
+        if (pixelBuffer == null || pixelBuffer.length < size) pixelBuffer = new int[size];
+        return pixelBuffer;
+    }
+}
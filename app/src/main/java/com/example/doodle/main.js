@@ -1,8 +1,139 @@
 Parse.Cloud.define("doodlenotification", (request) => {
+    return sendDoodleNotification(request.params.user);
+});
+// Saves a doodle, fills in its root and adds the root to the artist's rootsContributedTo in a single call,
+// instead of the app saving the doodle, fixing up its root and then saving the user one round-trip at a time
+// A doodle in a game is also counted towards the round, see countSubmission
+Parse.Cloud.define("submitdoodle", async (request) => {
+    const user = request.user;
+    if (!user) throw new Parse.Error(Parse.Error.INVALID_SESSION_TOKEN, "Only a logged in user can submit a doodle");
+    const params = request.params;
+    // A submission that was queued while somebody else was logged in must not be saved as the current user's
+    if (params.artistId !== user.id) throw new Parse.Error(Parse.Error.OPERATION_FORBIDDEN, "The doodle was drawn by another user");
+
+    // A retry of a submission that was saved but whose response never made it back finds the doodle that was saved,
+    // and goes through the steps after the save again, since the first attempt may have stopped before them
+    // The lookup relies on the index on submissionId, see the createindexes job
+    let doodle = null;
+    if (params.submissionId) {
+        doodle = await new Parse.Query("Doodle").equalTo("submissionId", params.submissionId).equalTo("artist", user).first({ useMasterKey: true });
+    }
+    const retried = !!doodle;
+    let parent = null;
+    if (!retried) {
+        // Only the game's players can submit to it, which is checked before anything is saved
+        if (params.gameId) {
+            const game = await new Parse.Query("Game").get(params.gameId, { useMasterKey: true });
+            if (!isPlayer(game, user.id)) throw new Parse.Error(Parse.Error.OPERATION_FORBIDDEN, "Only a player can submit to a game");
+        }
+        doodle = await saveDoodle(user, params);
+        parent = doodle.get("parent") || null;
+    }
+    const root = doodle.get("root");
+
+    // Every step from here on is safe to repeat
+    // addUnique is applied by the database, so submissions from two devices can't overwrite each other's roots
+    user.addUnique("rootsContributedTo", root);
+    await user.save(null, { useMasterKey: true });
+
+    let round = null;
+    if (params.gameId) round = await countSubmission(params.gameId, params.round, user.id);
+
+    // The doodle is already saved, so a notification that can't be sent doesn't fail the submission
+    // A retry may have sent it already, and a second notification is worse than a missing one, so only the first try does
+    if (!retried && params.notify && parent && parent.get("artist").get("getsNotifications")) {
+        try {
+            await sendDoodleNotification(parent.get("artist").id);
+        } catch (e) {
+            console.error("Couldn't notify the artist of " + parent.id + ": " + e.message);
+        }
+    }
+    return { doodleId: doodle.id, root: root, round: round };
+});
+
+// Creates and saves the doodle of a submission, as its artist
+async function saveDoodle(user, params) {
+    const doodle = new Parse.Object("Doodle");
+    doodle.set("artist", user);
+    if (params.submissionId) doodle.set("submissionId", params.submissionId);
+    doodle.set("image", params.image);
+    doodle.set("imageCodec", params.imageCodec);
+    // The strokes are sent as base64, and saved as bytes like the app would
+    if (params.strokes) doodle.set("strokes", { __type: "Bytes", base64: params.strokes });
+    if (params.isLayer) doodle.set("isLayer", true);
+    if (params.canvasWidth) {
+        doodle.set("cropLeft", params.cropLeft);
+        doodle.set("cropTop", params.cropTop);
+        doodle.set("canvasWidth", params.canvasWidth);
+        doodle.set("canvasHeight", params.canvasHeight);
+    }
+    if (params.gameId) doodle.set("inGame", params.gameId);
+
+    // Without a parent, the tail length defaults to 1 as defined in the database,
+    // and the doodle starts a new chain under the root the app generated for it
+    if (params.parentId) {
+        const parent = await new Parse.Query("Doodle").include("artist").get(params.parentId, { useMasterKey: true });
+        doodle.set("parent", parent);
+        doodle.set("tailLength", parent.get("tailLength") + 1);
+        doodle.set("root", parent.get("root"));
+    }
+    else {
+        doodle.set("root", typeof params.root === "string" && params.root ? params.root : newRoot());
+    }
+    await doodle.save(null, { sessionToken: user.getSessionToken() });
+    return doodle;
+}
+
+// Adds the indexes the functions above query by, run once after deploying the cloud code
+// submitdoodle looks up every submission by its submissionId, which would otherwise scan all the doodles
+Parse.Cloud.job("createindexes", async (request) => {
+    const schema = new Parse.Schema("Doodle");
+    const existing = await schema.get();
+    if (existing.indexes && existing.indexes.submissionId_1) {
+        request.message("The indexes already exist");
+        return;
+    }
+    schema.addIndex("submissionId_1", { submissionId: 1 });
+    await schema.update();
+    request.message("Added the index on Doodle.submissionId");
+});
+
+// One-time fix for the doodles saved before roots were generated up front
+// Their root used to be set in a second save, so a doodle whose second save failed was left without one
+// Older roots are the objectId of the first doodle of their chain, they're left as they are since they're just as unique
+Parse.Cloud.job("backfillroots", async (request) => {
+    const query = new Parse.Query("Doodle");
+    query.doesNotExist("root");
+    query.include("parent");
+    let count = 0;
+    await query.each(async (doodle) => {
+        const parent = doodle.get("parent");
+        const root = parent ? parent.get("root") : doodle.id;
+        // The parent may be one of the rootless doodles itself, it's picked up on the next run
+        if (!root) return;
+        doodle.set("root", root);
+        await doodle.save(null, { useMasterKey: true });
+        const artist = doodle.get("artist");
+        if (artist) {
+            artist.addUnique("rootsContributedTo", root);
+            await artist.save(null, { useMasterKey: true });
+        }
+        count++;
+    }, { useMasterKey: true });
+    request.message("Filled in the root of " + count + " doodles");
+});
+
+// A new identifier for a chain of doodles, for submissions from apps that don't send one
+function newRoot() {
+    return require("crypto").randomBytes(16).toString("hex");
+}
+
+// Sends a push notification to the installations of the user with this objectId
+function sendDoodleNotification(userId) {
     // Define the pushQuery
     var pushQuery = new Parse.Query(Parse.Installation);
     // Send to any installations with the user passed in
-    pushQuery.equalTo('user', request.params.user);
+    pushQuery.equalTo('user', userId);
     // Send the push notification
     return Parse.Push.send({
         where: pushQuery,
@@ -11,4 +142,39 @@ Parse.Cloud.define("doodlenotification", (request) => {
             alert: "Come check it out!",
         }
     }, { useMasterKey: true });
-});
\ No newline at end of file
+}
+
+// Counts the player's submission towards a round of a game, and returns the round the game is in afterwards
+// The players who have submitted are kept in the game's submittedBy as "<round>:<userId>", so counting the same
+// player twice, such as for a retried submission, changes nothing, and a submission that comes in after its round
+// has ended can't be counted towards the next one
+async function countSubmission(gameId, round, userId) {
+    const game = await new Parse.Query("Game").get(gameId, { useMasterKey: true });
+    // Somebody who isn't playing, or has left, can't move the round on for the players
+    if (!isPlayer(game, userId)) throw new Parse.Error(Parse.Error.OPERATION_FORBIDDEN, "Only a player can submit to a game");
+    // A submission for a round that has already ended changes nothing
+    if (game.get("round") !== round) return game.get("round");
+
+    // addUnique is applied by the database, so players submitting at the same time don't overwrite each other
+    const prefix = round + ":";
+    game.addUnique("submittedBy", prefix + userId);
+    await game.save(null, { useMasterKey: true });
+    const submittedBy = game.get("submittedBy").filter((entry) => entry.startsWith(prefix));
+    // Players who submitted and left since don't count
+    const submittedPlayers = submittedBy.filter((entry) => isPlayer(game, entry.substring(prefix.length)));
+    if (submittedPlayers.length < game.get("players").length) return round;
+
+    // The submission that completes the round starts the next one, unless another one already has
+    // The round is set rather than incremented, so even if more than one submission gets here, it only moves on once
+    await game.fetch({ useMasterKey: true });
+    if (game.get("round") !== round) return game.get("round");
+    game.set("round", round + 1);
+    // Only this round's players are removed, the next round's may already be coming in
+    game.removeAll("submittedBy", submittedBy);
+    await game.save(null, { useMasterKey: true });
+    return round + 1;
+}
+
+function isPlayer(game, userId) {
+    return (game.get("players") || []).some((player) => player.id === userId);
+}
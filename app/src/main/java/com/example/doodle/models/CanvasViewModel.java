@@ -5,13 +5,15 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.example.doodle.R;
+import com.example.doodle.drawing.Stroke;
 
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CanvasViewModel extends ViewModel {
     private final MutableLiveData<Integer> selectedSizeButtonId = new MutableLiveData<>();
     private final MutableLiveData<Integer> selectedPenButtonId = new MutableLiveData<>();
-    private final MutableLiveData<LinkedHashMap> currentPaths = new MutableLiveData<>();
+    private final MutableLiveData<List<Stroke>> currentStrokes = new MutableLiveData<>();
     private final MutableLiveData<Boolean> colorPickerIsExpanded = new MutableLiveData<>();
 
     public void selectSizeButton(int sizeButtonId) {
@@ -22,8 +24,8 @@ public class CanvasViewModel extends ViewModel {
         selectedPenButtonId.setValue(penButtonId);
     }
 
-    public void setPaths(LinkedHashMap paths) {
-        currentPaths.setValue(paths);
+    public void setStrokes(List<Stroke> strokes) {
+        currentStrokes.setValue(strokes);
     }
 
     public void setColorPickerIsExpanded(boolean expanded) {
@@ -42,10 +44,10 @@ public class CanvasViewModel extends ViewModel {
         return selectedPenButtonId;
     }
 
-    public LiveData<LinkedHashMap> getPaths() {
-        // Set empty LinkedHashMap as default
-        if (currentPaths.getValue() == null) setPaths(new LinkedHashMap());
-        return currentPaths;
+    public LiveData<List<Stroke>> getStrokes() {
+        // Set empty list as default
+        if (currentStrokes.getValue() == null) setStrokes(new ArrayList<>());
+        return currentStrokes;
     }
 
     public LiveData<Boolean> getColorPickerIsExpanded() {
@@ -58,7 +60,7 @@ public class CanvasViewModel extends ViewModel {
     public void clear() {
         selectSizeButton(R.id.mediumButton);
         selectPenButton(R.id.colorButton);
-        setPaths(new LinkedHashMap());
+        setStrokes(new ArrayList<>());
         setColorPickerIsExpanded(false);
     }
 }
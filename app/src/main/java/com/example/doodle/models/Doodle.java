@@ -15,6 +15,7 @@ import com.parse.ParseUser;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Date;
+import java.util.UUID;
 
 @ParseClassName("Doodle")
 public class Doodle extends ParseObject implements Parcelable {
@@ -25,6 +26,13 @@ public class Doodle extends ParseObject implements Parcelable {
     public static final String KEY_TAIL_LENGTH = "tailLength";
     public static final String KEY_ROOT = "root";
     public static final String KEY_IN_GAME = "inGame";
+    public static final String KEY_STROKES = "strokes";
+    public static final String KEY_IMAGE_CODEC = "imageCodec";
+    public static final String KEY_IS_LAYER = "isLayer";
+    public static final String KEY_CROP_LEFT = "cropLeft";
+    public static final String KEY_CROP_TOP = "cropTop";
+    public static final String KEY_CANVAS_WIDTH = "canvasWidth";
+    public static final String KEY_CANVAS_HEIGHT = "canvasHeight";
 
     @NonNull
     @NotNull
@@ -49,6 +57,57 @@ public class Doodle extends ParseObject implements Parcelable {
         put(KEY_IMAGE, image);
     }
 
+    // The name of the ImageCodec the image was written with, null for doodles saved before it was recorded
+    public String getImageCodec() {
+        if (containsKey(KEY_IMAGE_CODEC)) return getString(KEY_IMAGE_CODEC);
+        return null;
+    }
+
+    public void setImageCodec(String imageCodec) {
+        put(KEY_IMAGE_CODEC, imageCodec);
+    }
+
+    // Whether the image holds only this artist's strokes rather than the parent with the strokes on top,
+    // see ChainCompositor
+    public boolean getIsLayer() {
+        if (containsKey(KEY_IS_LAYER)) return getBoolean(KEY_IS_LAYER);
+        return false;
+    }
+
+    public void setIsLayer(boolean isLayer) {
+        put(KEY_IS_LAYER, isLayer);
+    }
+
+    // Whether the image was cropped to the part of the canvas that was drawn on
+    public boolean getIsCropped() {
+        return getCanvasWidth() > 0 && getCanvasHeight() > 0;
+    }
+
+    // Where the top left corner of a cropped image sits on the canvas
+    public int getCropLeft() {
+        return getInt(KEY_CROP_LEFT);
+    }
+
+    public int getCropTop() {
+        return getInt(KEY_CROP_TOP);
+    }
+
+    // The size of the canvas a cropped image was cut from, 0 if the image isn't cropped
+    public int getCanvasWidth() {
+        return getInt(KEY_CANVAS_WIDTH);
+    }
+
+    public int getCanvasHeight() {
+        return getInt(KEY_CANVAS_HEIGHT);
+    }
+
+    public void setCrop(int cropLeft, int cropTop, int canvasWidth, int canvasHeight) {
+        put(KEY_CROP_LEFT, cropLeft);
+        put(KEY_CROP_TOP, cropTop);
+        put(KEY_CANVAS_WIDTH, canvasWidth);
+        put(KEY_CANVAS_HEIGHT, canvasHeight);
+    }
+
     public Doodle getParent() {
         return (Doodle) getParseObject(KEY_PARENT);
     }
@@ -65,6 +124,8 @@ public class Doodle extends ParseObject implements Parcelable {
         put(KEY_TAIL_LENGTH, tailLength);
     }
 
+    // The root identifies the chain of doodles this one belongs to, and is the same for all of them
+    // Older chains use the objectId of their first doodle, newer ones an identifier generated before it's saved, see newRoot
     public String getRoot() {
         return getString(KEY_ROOT);
     }
@@ -73,6 +134,11 @@ public class Doodle extends ParseObject implements Parcelable {
         put(KEY_ROOT, root);
     }
 
+    // A root for a doodle that starts a new chain, random so it's unique without asking the server
+    public static String newRoot() {
+        return UUID.randomUUID().toString();
+    }
+
     public String getInGame() {
         if (containsKey(KEY_IN_GAME)) return getString(KEY_IN_GAME);
         return null;
@@ -82,6 +148,16 @@ public class Doodle extends ParseObject implements Parcelable {
         put(KEY_IN_GAME, inGame);
     }
 
+    // The strokes added by this doodle's artist, encoded with StrokeCodec
+    public byte[] getStrokes() {
+        if (containsKey(KEY_STROKES)) return getBytes(KEY_STROKES);
+        return null;
+    }
+
+    public void setStrokes(byte[] strokes) {
+        put(KEY_STROKES, strokes);
+    }
+
     public String getTimestamp() {
         Date createdAt = this.getCreatedAt();
         int SECOND_MILLIS = 1000;
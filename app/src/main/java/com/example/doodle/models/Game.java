@@ -10,6 +10,7 @@ import com.parse.ParseObject;
 import com.parse.ParseUser;
 
 import java.util.ArrayList;
+import java.util.List;
 
 @ParseClassName("Game")
 public class Game extends ParseObject implements Parcelable {
@@ -19,6 +20,8 @@ public class Game extends ParseObject implements Parcelable {
     public static final String KEY_HOST = "host";
     public static final String KEY_TIME_LIMIT = "timeLimit";
     public static final String KEY_ROUND = "round";
+    // Players who have submitted in the current round, as "<round>:<objectId>", only ever changed by the cloud functions
+    public static final String KEY_SUBMITTED_BY = "submittedBy";
 
     public String getGameCode() {
         return getString(KEY_GAME_CODE);
@@ -78,4 +81,10 @@ public class Game extends ParseObject implements Parcelable {
     public void setRound(int round) {
         put(KEY_ROUND, round);
     }
+
+    // Whether the player has submitted their doodle for the round, which is only known until the round has ended
+    public boolean hasSubmitted(int round, ParseUser player) {
+        List<String> submittedBy = getList(KEY_SUBMITTED_BY);
+        return submittedBy != null && submittedBy.contains(round + ":" + player.getObjectId());
+    }
 }
@@ -0,0 +1,140 @@
+package com.example.doodle.submission;
+
+import android.graphics.Rect;
+import android.util.Base64;
+import android.util.Log;
+
+import com.example.doodle.models.Doodle;
+import com.parse.ParseCloud;
+import com.parse.ParseException;
+import com.parse.ParseFile;
+import com.parse.ParseUser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+// A doodle to be saved by the submitdoodle cloud function, see main.js
+// The function saves the doodle with its root and adds the root to the artist's roots contributed to in one call,
+// and for a doodle in a game it also counts it towards the round, so submitting only takes a single round-trip
+// after the image has been uploaded
+// Every submission has an id, so the function can tell a retry from a new doodle, see SubmissionOutbox
+// It also records its artist, the user logged in when it was drawn, since it may only be sent once somebody else
+// has logged in, and it must never be saved as theirs
+public class DoodleSubmission {
+    public static final String TAG = "DoodleSubmission";
+    public static final String FUNCTION_NAME = "submitdoodle";
+
+    private static final String KEY_SUBMISSION_ID = "submissionId";
+    private static final String KEY_IMAGE = "image";
+    private static final String KEY_IMAGE_CODEC = "imageCodec";
+    private static final String KEY_ROOT = "root";
+    private static final String KEY_ARTIST_ID = "artistId";
+
+    public interface Callback {
+        // Called on the main thread with the objectId of the saved doodle, or with the exception that stopped it being saved
+        void done(String doodleId, Exception e);
+    }
+
+    private final HashMap<String, Object> params = new HashMap<>();
+
+    // imageCodec is the name of the ImageCodec the image is written with
+    // The artist is the current user, who must be logged in
+    public DoodleSubmission(String imageCodec) {
+        params.put(KEY_SUBMISSION_ID, UUID.randomUUID().toString());
+        params.put(KEY_ARTIST_ID, ParseUser.getCurrentUser().getObjectId());
+        params.put(KEY_IMAGE_CODEC, imageCodec);
+        // Without a parent the doodle starts a new chain, its root is known up front so saving it takes a single write
+        params.put(KEY_ROOT, Doodle.newRoot());
+    }
+
+    private DoodleSubmission() {}
+
+    // Reads back a submission written with toJson
+    public static DoodleSubmission fromJson(JSONObject json) throws JSONException {
+        DoodleSubmission submission = new DoodleSubmission();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            submission.params.put(key, json.get(key));
+        }
+        if (!submission.params.containsKey(KEY_SUBMISSION_ID)) throw new JSONException("Submission has no id");
+        // Without an artist there's no telling who it may be sent as
+        if (!submission.params.containsKey(KEY_ARTIST_ID)) throw new JSONException("Submission has no artist");
+        return submission;
+    }
+
+    // Everything about the submission but the image, which is uploaded separately
+    public JSONObject toJson() {
+        return new JSONObject(params);
+    }
+
+    public String getId() {
+        return (String) params.get(KEY_SUBMISSION_ID);
+    }
+
+    // objectId of the user who drew it, the only one it may be submitted as
+    public String getArtistId() {
+        return (String) params.get(KEY_ARTIST_ID);
+    }
+
+    public String getImageCodec() {
+        return (String) params.get(KEY_IMAGE_CODEC);
+    }
+
+    // The strokes this artist added, encoded with StrokeCodec
+    public void setStrokes(byte[] strokes) {
+        if (strokes != null) params.put("strokes", Base64.encodeToString(strokes, Base64.NO_WRAP));
+    }
+
+    // A layer's image is only the drawing, the parent is composited back in when it's shown
+    public void setIsLayer(boolean isLayer) {
+        params.put("isLayer", isLayer);
+    }
+
+    // cropBounds is the part of the canvas the image was cut from
+    public void setCrop(Rect cropBounds, int canvasWidth, int canvasHeight) {
+        params.put("cropLeft", cropBounds.left);
+        params.put("cropTop", cropBounds.top);
+        params.put("canvasWidth", canvasWidth);
+        params.put("canvasHeight", canvasHeight);
+    }
+
+    // The tail length and the root are taken from the parent on the server
+    public void setParent(Doodle parent) {
+        params.remove(KEY_ROOT);
+        params.put("parentId", parent.getObjectId());
+    }
+
+    // The doodle is submitted for this round of the game
+    public void setGame(String gameId, int round) {
+        params.put("gameId", gameId);
+        params.put("round", round);
+    }
+
+    // Whether the artist of the parent is sent a push notification, if they have them enabled
+    public void setNotifyParentArtist(boolean notify) {
+        params.put("notify", notify);
+    }
+
+    // Saves the doodle with the image, which must have been uploaded already
+    public void submitInBackground(ParseFile image, Callback callback) {
+        HashMap<String, Object> imageParams = new HashMap<>(params);
+        imageParams.put(KEY_IMAGE, image);
+        ParseCloud.callFunctionInBackground(FUNCTION_NAME, imageParams, (Map<String, Object> response, ParseException e) -> {
+            if (e != null) {
+                Log.e(TAG, "Couldn't submit the doodle", e);
+                callback.done(null, e);
+                return;
+            }
+            // The roots contributed to were changed on the server, so the cached user has to catch up
+            ParseUser user = ParseUser.getCurrentUser();
+            if (user != null) user.fetchInBackground();
+            callback.done((String) response.get("doodleId"), null);
+        });
+    }
+}
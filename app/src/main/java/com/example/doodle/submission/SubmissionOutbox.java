@@ -0,0 +1,281 @@
+package com.example.doodle.submission;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.doodle.NamedThreadFactory;
+import com.example.doodle.R;
+import com.example.doodle.imaging.EncodedImage;
+import com.example.doodle.imaging.ImageCodecs;
+import com.parse.ParseException;
+import com.parse.ParseFile;
+import com.parse.ParseUser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Doodle submissions waiting to be uploaded and saved, kept on disk until they are
+// A submission is written to its own directory, its encoded image and its DoodleSubmission as JSON, before anything
+// is sent, so the screen it came from can move on right away and the doodle survives the process being killed,
+// the submissions left over are picked up again when the app starts
+// Submissions are sent one at a time in the order they were added: the image is uploaded, then the doodle is saved
+// with it, see DoodleSubmission
+// A submission is only sent while its artist is logged in, the ones by somebody else wait for them to log in again
+// A failure caused by the network is retried after a delay that doubles every time, up to MAX_RETRY_DELAY, and right
+// away when the network comes back, any other failure won't go away by retrying so the submission is dropped
+public class SubmissionOutbox {
+    public static final String TAG = "SubmissionOutbox";
+    public static final long INITIAL_RETRY_DELAY = TimeUnit.SECONDS.toMillis(2);
+    public static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String DIRECTORY_NAME = "submission_outbox";
+    private static final String IMAGE_FILE_NAME = "image";
+    private static final String SUBMISSION_FILE_NAME = "submission.json";
+
+    private static SubmissionOutbox instance;
+
+    private final Context context;
+    private final File directory;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Reads, writes and deletes share one thread, so a submission is never read before it has been written
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("SubmissionOutbox"));
+    // Only used on the main thread
+    private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+    private boolean sending;
+    private long retryDelay = INITIAL_RETRY_DELAY;
+
+    // Called once from ParseApplication, after Parse has been initialized
+    public static synchronized void init(Context context) {
+        if (instance == null) {
+            instance = new SubmissionOutbox(context.getApplicationContext());
+            instance.restore();
+        }
+    }
+
+    private static class Entry {
+        final DoodleSubmission submission;
+        // Only kept in memory if it couldn't be written to disk
+        final byte[] unsavedImage;
+
+        Entry(DoodleSubmission submission, byte[] unsavedImage) {
+            this.submission = submission;
+            this.unsavedImage = unsavedImage;
+        }
+    }
+
+    public static SubmissionOutbox get() {
+        if (instance == null) throw new IllegalStateException("SubmissionOutbox.init has not been called");
+        return instance;
+    }
+
+    private SubmissionOutbox(Context context) {
+        this.context = context;
+        this.directory = new File(context.getFilesDir(), DIRECTORY_NAME);
+        ConnectivityManager connectivityManager = context.getSystemService(ConnectivityManager.class);
+        if (connectivityManager != null) connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    // Stores the submission with its image and sends it as soon as the ones before it are done
+    // Called on the main thread, nothing is written on it
+    public void add(DoodleSubmission submission, EncodedImage image) {
+        diskExecutor.execute(() -> {
+            byte[] unsavedImage = null;
+            try {
+                write(submission, image.getData());
+            } catch (IOException e) {
+                // It can still be sent as long as the process is alive
+                Log.e(TAG, "Couldn't store submission " + submission.getId(), e);
+                unsavedImage = image.getData();
+            }
+            Entry entry = new Entry(submission, unsavedImage);
+            mainHandler.post(() -> {
+                pending.add(entry);
+                sendNext();
+            });
+        });
+    }
+
+    // Puts the submissions that were still waiting when the process died back in line, oldest first
+    private void restore() {
+        diskExecutor.execute(() -> {
+            File[] directories = directory.listFiles(File::isDirectory);
+            if (directories == null) return;
+            Arrays.sort(directories, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (File submissionDirectory : directories) {
+                try {
+                    DoodleSubmission submission = readSubmission(submissionDirectory);
+                    mainHandler.post(() -> pending.add(new Entry(submission, null)));
+                } catch (IOException | JSONException e) {
+                    Log.e(TAG, "Dropping unreadable submission " + submissionDirectory, e);
+                    deleteDirectory(submissionDirectory);
+                }
+            }
+            mainHandler.post(this::sendNext);
+        });
+    }
+
+    private void sendNext() {
+        if (sending || pending.isEmpty()) return;
+        // Submissions are saved as the user that drew them, so only the current user's are sent, oldest first
+        Entry entry = nextSendable();
+        if (entry == null) {
+            retryLater();
+            return;
+        }
+        sending = true;
+        if (entry.unsavedImage != null) {
+            upload(entry, entry.unsavedImage);
+            return;
+        }
+        diskExecutor.execute(() -> {
+            try {
+                byte[] data = readImage(entry.submission);
+                mainHandler.post(() -> upload(entry, data));
+            } catch (IOException e) {
+                mainHandler.post(() -> finish(entry, e));
+            }
+        });
+    }
+
+    // The oldest submission by the current user, or null if nobody is logged in or they have none waiting
+    private Entry nextSendable() {
+        ParseUser user = ParseUser.getCurrentUser();
+        if (user == null) return null;
+        for (Entry entry : pending) {
+            if (user.getObjectId().equals(entry.submission.getArtistId())) return entry;
+        }
+        return null;
+    }
+
+    // Parse uploads the file on its own background threads
+    private void upload(Entry entry, byte[] data) {
+        DoodleSubmission submission = entry.submission;
+        String fileName = "doodle" + System.currentTimeMillis() + "." + ImageCodecs.forName(submission.getImageCodec()).getFileExtension();
+        ParseFile file = new ParseFile(fileName, data);
+        file.saveInBackground(e -> {
+            if (e != null) finish(entry, e);
+            else submission.submitInBackground(file, (doodleId, e1) -> finish(entry, e1));
+        });
+    }
+
+    private void finish(Entry entry, Exception e) {
+        DoodleSubmission submission = entry.submission;
+        sending = false;
+        if (e != null && isRetryable(e)) {
+            Log.w(TAG, "Submission " + submission.getId() + " failed, retrying in " + retryDelay + "ms", e);
+            retryLater();
+            return;
+        }
+
+        pending.remove(entry);
+        retryDelay = INITIAL_RETRY_DELAY;
+        diskExecutor.execute(() -> deleteDirectory(getDirectory(submission)));
+        if (e != null) {
+            Log.e(TAG, "Dropping submission " + submission.getId(), e);
+            Toast.makeText(context, context.getString(R.string.error_submitting_doodle), Toast.LENGTH_LONG).show();
+        }
+        sendNext();
+    }
+
+    private void retryLater() {
+        mainHandler.removeCallbacks(retry);
+        mainHandler.postDelayed(retry, retryDelay);
+        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+    }
+
+    private final Runnable retry = this::sendNext;
+
+    // Sends the waiting submissions without waiting out the backoff, such as once their artist has logged in again
+    public void resume() {
+        if (sending || pending.isEmpty()) return;
+        mainHandler.removeCallbacks(retry);
+        retryDelay = INITIAL_RETRY_DELAY;
+        sendNext();
+    }
+
+    // Only failures to reach the server are worth retrying, the server turning a submission down won't change
+    private boolean isRetryable(Exception e) {
+        if (!(e instanceof ParseException)) return false;
+        int code = ((ParseException) e).getCode();
+        return code == ParseException.CONNECTION_FAILED || code == ParseException.TIMEOUT
+                || code == ParseException.INTERNAL_SERVER_ERROR || code == ParseException.OTHER_CAUSE;
+    }
+
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            // Don't wait out the backoff once there's a network to send on
+            mainHandler.post(SubmissionOutbox.this::resume);
+        }
+    };
+
+    private File getDirectory(DoodleSubmission submission) {
+        return new File(directory, submission.getId());
+    }
+
+    // The submission is written last, so a directory without one was never finished and is dropped on restore
+    private void write(DoodleSubmission submission, byte[] image) throws IOException {
+        File submissionDirectory = getDirectory(submission);
+        if (!submissionDirectory.isDirectory() && !submissionDirectory.mkdirs()) throw new IOException("Couldn't create " + submissionDirectory);
+        writeFile(new File(submissionDirectory, IMAGE_FILE_NAME), image);
+        writeFile(new File(submissionDirectory, SUBMISSION_FILE_NAME), submission.toJson().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Written to a temporary file first, so a file is either complete or missing
+    private void writeFile(File file, byte[] data) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            out.write(data);
+            // Make sure it's on disk before it's renamed, or a crash could leave a complete looking but empty file
+            out.getFD().sync();
+        }
+        if (!tempFile.renameTo(file)) throw new IOException("Couldn't rename " + tempFile);
+    }
+
+    private DoodleSubmission readSubmission(File submissionDirectory) throws IOException, JSONException {
+        String json = new String(readFile(new File(submissionDirectory, SUBMISSION_FILE_NAME)), StandardCharsets.UTF_8);
+        return DoodleSubmission.fromJson(new JSONObject(json));
+    }
+
+    private byte[] readImage(DoodleSubmission submission) throws IOException {
+        return readFile(new File(getDirectory(submission), IMAGE_FILE_NAME));
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) throw new IOException("Unexpected end of " + file);
+                offset += read;
+            }
+            return data;
+        }
+    }
+
+    private void deleteDirectory(File submissionDirectory) {
+        File[] files = submissionDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        if (!submissionDirectory.delete()) Log.d(TAG, "Couldn't delete " + submissionDirectory);
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.doodle.submission;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.doodle.NamedThreadFactory;
+import com.example.doodle.drawing.Stroke;
+import com.example.doodle.drawing.StrokeRenderer;
+import com.example.doodle.imaging.BitmapPool;
+import com.example.doodle.imaging.EncodedImage;
+import com.example.doodle.imaging.ImageCodecs;
+import com.example.doodle.imaging.SharedBitmap;
+import com.example.doodle.imaging.TransparencyKeyer;
+import com.parse.ProgressCallback;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Turns a finished drawing into an encoded image off the main thread
+// The work is split into stages that each run on a background executor and hand off to the next:
+// crop (to the part that was drawn on), key (white to transparent), composite (drawing on top of its parent) and encode (see ImageCodecs)
+// Only progress updates and the final result are posted back to the main thread
+// Uploading is left to the SubmissionOutbox, so a slow network never holds up the drawing being processed
+// The pipeline takes ownership of the drawing and returns it to the BitmapPool once it's encoded, the parent is
+// only borrowed, since it is still on screen behind the canvas, and is released to its other holders instead
+// A pipeline can also be started speculatively before the drawing is finished, see speculate, in which case it
+// keeps its encoded image to itself and keeps the keyed drawing, so finishing it only has to draw the strokes added since
+public class SubmissionPipeline {
+    public static final String TAG = "SubmissionPipeline";
+
+    // Share of the overall progress at which each stage starts, encoding takes the rest
+    private static final int PROGRESS_KEY = 0;
+    private static final int PROGRESS_COMPOSITE = 25;
+    private static final int PROGRESS_ENCODE = 50;
+
+    // Keying and compositing are short and share a thread, encoding is kept off it so the next
+    // submission can start being processed while the previous one is still being compressed
+    private static final ExecutorService processingExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("SubmissionProcessing"));
+    private static final ExecutorService encodingExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("SubmissionEncoding"));
+
+    public interface Callback {
+        // Called on the main thread with the encoded image, or with the exception that stopped the pipeline
+        void done(EncodedImage image, Exception e);
+    }
+
+    private final Bitmap drawingBitmap;
+    private final SharedBitmap parent;
+    private final Bitmap parentBitmap;
+    private final Rect cropBounds;
+    private final int[] palette;
+    private final Handler mainHandler;
+    private volatile Callback callback;
+    private volatile ProgressCallback progressCallback;
+    private volatile boolean cancelled;
+    private boolean bitmapsReleased;
+
+    // Results of a speculative run, the keyed drawing is only used on the processing thread
+    private Bitmap speculativeKeyedBitmap;
+    private volatile EncodedImage speculativeImage;
+    private volatile Exception speculativeError;
+    private boolean finishing;
+
+    // parent may be null if the drawing has no parent, progressCallback may be null if progress isn't needed
+    // The pipeline holds on to the parent until it's done with it, even if it is cancelled
+    // cropBounds may be null to keep the whole drawing, it's ignored if there is a parent, which covers the whole canvas
+    // palette holds the colors the drawing was most likely drawn with, see ColorPickerFragment.getPalette
+    public SubmissionPipeline(Bitmap drawingBitmap, SharedBitmap parent, Rect cropBounds, int[] palette, Callback callback, ProgressCallback progressCallback) {
+        this.drawingBitmap = drawingBitmap;
+        this.parent = parent;
+        this.parentBitmap = parent == null ? null : parent.acquire();
+        this.cropBounds = parentBitmap == null ? cropBounds : null;
+        this.palette = palette;
+        this.callback = callback;
+        this.progressCallback = progressCallback;
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    // Starts processing a drawing that isn't finished yet, such as a game round's drawing shortly before the deadline
+    // The drawing is keyed, composited and encoded, but the image is only handed over once it is finished, see finish
+    public static SubmissionPipeline speculate(Bitmap drawingBitmap, SharedBitmap parent, Rect cropBounds, int[] palette) {
+        SubmissionPipeline pipeline = new SubmissionPipeline(drawingBitmap, parent, cropBounds, palette, null, null);
+        processingExecutor.execute(() -> pipeline.key(true));
+        return pipeline;
+    }
+
+    public void start() {
+        processingExecutor.execute(() -> key(false));
+    }
+
+    // Finishes a speculative pipeline with the strokes that were added to the drawing since it was started,
+    // the drawing must not have changed in any other way
+    // cropBounds is what the drawing would be cropped to now, if it differs from the speculative crop
+    // the drawing can't be patched, in which case false is returned and the pipeline has to be cancelled
+    public boolean finish(List<Stroke> newStrokes, Rect cropBounds, Callback callback, ProgressCallback progressCallback) {
+        Rect newCropBounds = parentBitmap == null ? cropBounds : null;
+        if (cancelled || finishing || !Objects.equals(this.cropBounds, newCropBounds)) return false;
+        finishing = true;
+        this.callback = callback;
+        this.progressCallback = progressCallback;
+        processingExecutor.execute(() -> patch(newStrokes));
+        return true;
+    }
+
+    // Stops the pipeline after the stage that is currently running, no callback is made afterwards
+    public void cancel() {
+        cancelled = true;
+        // A speculative pipeline may be idle, holding on to its keyed drawing
+        processingExecutor.execute(() -> {
+            Bitmap keyedBitmap = speculativeKeyedBitmap;
+            speculativeKeyedBitmap = null;
+            if (keyedBitmap != null) releaseBitmaps(keyedBitmap);
+        });
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void key(boolean speculative) {
+        if (cancelled) {
+            releaseBitmaps(null);
+            return;
+        }
+        reportProgress(PROGRESS_KEY);
+        try {
+            // Cropping first means only the pixels that are kept get keyed
+            Bitmap keyedBitmap = TransparencyKeyer.makeTransparent(crop(drawingBitmap), Color.WHITE);
+            if (speculative) speculativeKeyedBitmap = keyedBitmap;
+            composite(keyedBitmap, speculative);
+        } catch (RuntimeException e) {
+            releaseBitmaps(null);
+            fail(e, speculative);
+        }
+    }
+
+    // Draws the strokes added since the speculative run onto its keyed drawing and carries on from there,
+    // or hands over the speculative image as is if nothing was added
+    private void patch(List<Stroke> newStrokes) {
+        Bitmap keyedBitmap = speculativeKeyedBitmap;
+        speculativeKeyedBitmap = null;
+        // Without a keyed drawing the speculative run failed before it got anywhere
+        if (cancelled || keyedBitmap == null) {
+            releaseBitmaps(keyedBitmap);
+            if (!cancelled) fail(speculativeError);
+            return;
+        }
+        if (newStrokes.isEmpty()) {
+            releaseBitmaps(keyedBitmap);
+            encodingExecutor.execute(this::finishSpeculativeImage);
+            return;
+        }
+
+        reportProgress(PROGRESS_KEY);
+        try {
+            // White strokes clear the keyed drawing, just as keying would have turned them transparent
+            Canvas canvas = new Canvas(keyedBitmap);
+            if (cropBounds != null) canvas.translate(-cropBounds.left, -cropBounds.top);
+            Paint paint = StrokeRenderer.newStrokePaint();
+            for (Stroke stroke : newStrokes) StrokeRenderer.drawStroke(canvas, stroke, 1, paint);
+            composite(keyedBitmap, false);
+        } catch (RuntimeException e) {
+            releaseBitmaps(keyedBitmap);
+            fail(e);
+        }
+    }
+
+    // Copies the part of the bitmap inside cropBounds into a pooled bitmap, or returns it as is if there's nothing to crop
+    private Bitmap crop(Bitmap bitmap) {
+        if (cropBounds == null || (cropBounds.width() == bitmap.getWidth() && cropBounds.height() == bitmap.getHeight())) return bitmap;
+        Bitmap cropped = BitmapPool.get().getCleared(cropBounds.width(), cropBounds.height(), Bitmap.Config.ARGB_8888);
+        new Canvas(cropped).drawBitmap(bitmap, -cropBounds.left, -cropBounds.top, null);
+        return cropped;
+    }
+
+    // Layers the drawing on top of the parent
+    // A speculative run keeps the keyed drawing to patch, so what it encodes is always a copy
+    private void composite(Bitmap keyedBitmap, boolean speculative) {
+        if (cancelled) {
+            if (!speculative) releaseBitmaps(keyedBitmap);
+            return;
+        }
+        reportProgress(PROGRESS_COMPOSITE);
+        try {
+            // If it has no parent, there is nothing to overlay it with
+            if (parentBitmap == null) {
+                Bitmap bitmap = keyedBitmap;
+                if (speculative) {
+                    bitmap = BitmapPool.get().getCleared(keyedBitmap.getWidth(), keyedBitmap.getHeight(), keyedBitmap.getConfig());
+                    new Canvas(bitmap).drawBitmap(keyedBitmap, 0, 0, null);
+                }
+                Bitmap encodedBitmap = bitmap;
+                encodingExecutor.execute(() -> encode(encodedBitmap, speculative));
+                return;
+            }
+
+            // The parent is scaled while it is drawn, so no scaled copy of it is made
+            Bitmap bmOverlay = BitmapPool.get().getCleared(keyedBitmap.getWidth(), keyedBitmap.getHeight(), keyedBitmap.getConfig());
+            Canvas canvas = new Canvas(bmOverlay);
+            float factor = keyedBitmap.getWidth() / (float) parentBitmap.getWidth();
+            Matrix matrix = new Matrix();
+            matrix.setScale(factor, factor);
+            canvas.drawBitmap(parentBitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+            canvas.drawBitmap(keyedBitmap, 0, 0, null);
+            if (!speculative) releaseBitmaps(keyedBitmap);
+            encodingExecutor.execute(() -> encode(bmOverlay, speculative));
+        } catch (RuntimeException e) {
+            if (!speculative) releaseBitmaps(keyedBitmap);
+            fail(e, speculative);
+        }
+    }
+
+    private void encode(Bitmap bitmap, boolean speculative) {
+        if (cancelled) {
+            release(bitmap, speculative);
+            return;
+        }
+        reportProgress(PROGRESS_ENCODE);
+        try {
+            EncodedImage encodedImage = ImageCodecs.encode(bitmap, palette);
+            release(bitmap, speculative);
+            if (speculative) speculativeImage = encodedImage;
+            else succeed(encodedImage);
+        } catch (RuntimeException e) {
+            release(bitmap, speculative);
+            fail(e, speculative);
+        }
+    }
+
+    // Runs on the encoding thread after the speculative encode, so its image is ready by then
+    private void finishSpeculativeImage() {
+        if (cancelled) return;
+        EncodedImage encodedImage = speculativeImage;
+        if (encodedImage == null) fail(speculativeError);
+        else succeed(encodedImage);
+    }
+
+    // A speculative run encodes its own copy, the inputs are kept until it's finished
+    private void release(Bitmap bitmap, boolean speculative) {
+        if (speculative) BitmapPool.get().put(bitmap);
+        else releaseBitmaps(bitmap);
+    }
+
+    // Hands the drawing and the current intermediate bitmap back to the pool, and lets go of the parent, once they're
+    // no longer needed
+    private synchronized void releaseBitmaps(Bitmap intermediate) {
+        BitmapPool pool = BitmapPool.get();
+        // Keying usually happens in place, so the intermediate bitmap may be one of the inputs
+        if (intermediate != null && intermediate != drawingBitmap && intermediate != parentBitmap) pool.put(intermediate);
+        if (bitmapsReleased) return;
+        bitmapsReleased = true;
+        pool.put(drawingBitmap);
+        if (parent != null) parent.release();
+    }
+
+    // Speculative runs have nobody to report to until they're finished
+    private void reportProgress(int percentDone) {
+        ProgressCallback progressCallback = this.progressCallback;
+        if (progressCallback == null) return;
+        mainHandler.post(() -> {
+            if (!cancelled) progressCallback.done(percentDone);
+        });
+    }
+
+    private void succeed(EncodedImage encodedImage) {
+        mainHandler.post(() -> {
+            if (!cancelled) callback.done(encodedImage, null);
+        });
+    }
+
+    // A speculative run keeps its error for finish to report
+    private void fail(Exception e, boolean speculative) {
+        if (speculative) {
+            Log.w(TAG, "Speculative submission failed", e);
+            speculativeError = e;
+        }
+        else {
+            fail(e);
+        }
+    }
+
+    private void fail(Exception e) {
+        Log.e(TAG, "Submission failed", e);
+        mainHandler.post(() -> {
+            if (!cancelled) callback.done(null, e);
+        });
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.doodle.sync;
+
+import android.util.Log;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Finds the results of a query in the Parse local datastore first, so a screen can show what it showed last time
+// straight away, and then on the network, so it's brought up to date
+// The network results are pinned under the given label in place of the last ones, the label should be unique to the query
+// Any objects the query includes are pinned with the results, so they don't have to be fetched again either
+public class CachedQuery {
+    public static final String TAG = "CachedQuery";
+
+    public interface Callback<T extends ParseObject> {
+        // Called on the main thread with the cached results, which are empty if there are none, then again with the results
+        // from the network, or with the exception that stopped the network query
+        // The cached results are skipped if the network answers first
+        void done(List<T> results, boolean fromCache, ParseException e);
+    }
+
+    public static <T extends ParseObject> void find(ParseQuery<T> query, String pinLabel, Callback<T> callback) {
+        boolean[] refreshed = new boolean[1];
+        ParseQuery<T> cacheQuery = new ParseQuery<>(query).fromPin(pinLabel);
+        cacheQuery.findInBackground((cachedResults, e) -> {
+            // The network may have been quicker, in which case the cached results are already out of date
+            if (refreshed[0]) return;
+            if (e != null) {
+                // Nothing is cached as far as the caller is concerned
+                Log.w(TAG, "Couldn't read " + pinLabel + " from the local datastore", e);
+                callback.done(new ArrayList<>(), true, null);
+            }
+            else {
+                callback.done(cachedResults, true, null);
+            }
+        });
+        query.findInBackground((results, e) -> {
+            refreshed[0] = true;
+            if (e != null) {
+                callback.done(null, false, e);
+                return;
+            }
+            callback.done(results, false, null);
+            ParseObject.unpinAllInBackground(pinLabel, e1 -> {
+                if (e1 != null) Log.w(TAG, "Couldn't unpin " + pinLabel, e1);
+                ParseObject.pinAllInBackground(pinLabel, results);
+            });
+        });
+    }
+}
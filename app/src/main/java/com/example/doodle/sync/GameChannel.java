@@ -0,0 +1,146 @@
+package com.example.doodle.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.doodle.R;
+import com.example.doodle.models.Game;
+import com.parse.ParseException;
+import com.parse.ParseQuery;
+import com.parse.livequery.LiveQueryException;
+import com.parse.livequery.ParseLiveQueryClient;
+import com.parse.livequery.ParseLiveQueryClientCallbacks;
+import com.parse.livequery.SubscriptionHandling;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+// Pushes the changes to a game as they're saved, instead of every player fetching it over and over
+// The game is subscribed to with Parse LiveQuery, and each update is compared with the last known state of the game,
+// see GameState
+// While the live query socket is down the game is fetched every FALLBACK_POLL_INTERVAL instead, and once more
+// whenever the subscription is (re)established, so no change made in between is missed
+public class GameChannel {
+    public static final String TAG = "GameChannel";
+    public static final long FALLBACK_POLL_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+    // One socket is shared by every channel
+    private static ParseLiveQueryClient client;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ParseLiveQueryClient liveQueryClient;
+    private final ParseQuery<Game> query;
+    private final GameListener listener;
+    private final GameState state;
+    private SubscriptionHandling<Game> subscription;
+    private boolean closed;
+    private boolean subscribed;
+
+    // Subscribes to the changes of the game, the channel has to be closed when they're no longer needed
+    public static GameChannel open(Context context, Game game, GameListener listener) {
+        GameChannel channel = new GameChannel(getClient(context), game, listener);
+        channel.subscribe();
+        return channel;
+    }
+
+    private static synchronized ParseLiveQueryClient getClient(Context context) {
+        if (client == null) {
+            try {
+                client = ParseLiveQueryClient.Factory.getClient(new URI(context.getString(R.string.back4app_live_query_url)));
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException("Malformed live query URL", e);
+            }
+        }
+        return client;
+    }
+
+    private GameChannel(ParseLiveQueryClient liveQueryClient, Game game, GameListener listener) {
+        this.liveQueryClient = liveQueryClient;
+        this.listener = listener;
+        this.query = ParseQuery.getQuery(Game.class).whereEqualTo("objectId", game.getObjectId());
+        this.state = new GameState(game);
+    }
+
+    public void close() {
+        closed = true;
+        mainHandler.removeCallbacksAndMessages(null);
+        liveQueryClient.unregisterListener(clientCallbacks);
+        if (subscription != null) liveQueryClient.unsubscribe(query, subscription);
+        subscription = null;
+    }
+
+    private void subscribe() {
+        liveQueryClient.registerListener(clientCallbacks);
+        subscription = liveQueryClient.subscribe(query);
+        subscription.handleSubscribe(subscribedQuery -> mainHandler.post(() -> {
+            if (closed) return;
+            subscribed = true;
+            mainHandler.removeCallbacks(poll);
+            // Anything saved before the subscription took hold wasn't pushed
+            fetch();
+        }));
+        subscription.handleEvents((eventQuery, event, updatedGame) -> mainHandler.post(() -> {
+            if (closed) return;
+            if (event == SubscriptionHandling.Event.DELETE || event == SubscriptionHandling.Event.LEAVE) {
+                listener.onGameError(new ParseException(ParseException.OBJECT_NOT_FOUND, "Game " + state.getGame().getObjectId() + " was deleted"));
+            }
+            else {
+                state.apply(updatedGame, listener);
+            }
+        }));
+        subscription.handleError((errorQuery, exception) -> Log.e(TAG, "Live query error", exception));
+        // Polls until the subscription is confirmed, in case the socket can't be opened at all
+        startPolling();
+    }
+
+    private final ParseLiveQueryClientCallbacks clientCallbacks = new ParseLiveQueryClientCallbacks() {
+        @Override
+        public void onLiveQueryClientConnected(ParseLiveQueryClient client) {}
+
+        @Override
+        public void onLiveQueryClientDisconnected(ParseLiveQueryClient client, boolean userInitiated) {
+            mainHandler.post(() -> startPolling());
+        }
+
+        @Override
+        public void onLiveQueryError(ParseLiveQueryClient client, LiveQueryException reason) {
+            Log.e(TAG, "Live query error", reason);
+        }
+
+        @Override
+        public void onSocketError(ParseLiveQueryClient client, Throwable reason) {
+            Log.e(TAG, "Live query socket error", reason);
+            mainHandler.post(() -> startPolling());
+        }
+    };
+
+    private void startPolling() {
+        if (closed) return;
+        subscribed = false;
+        mainHandler.removeCallbacks(poll);
+        mainHandler.postDelayed(poll, FALLBACK_POLL_INTERVAL);
+    }
+
+    // Fetches the game while there are no pushes, and tries to get the socket back
+    private final Runnable poll = new Runnable() {
+        @Override
+        public void run() {
+            if (closed || subscribed) return;
+            fetch();
+            liveQueryClient.reconnect();
+            mainHandler.postDelayed(this, FALLBACK_POLL_INTERVAL);
+        }
+    };
+
+    private void fetch() {
+        ParseQuery<Game> fetchQuery = ParseQuery.getQuery(Game.class);
+        fetchQuery.getInBackground(state.getGame().getObjectId(), (fetchedGame, e) -> {
+            if (closed) return;
+            if (e != null) listener.onGameError(e);
+            else state.apply(fetchedGame, listener);
+        });
+    }
+}
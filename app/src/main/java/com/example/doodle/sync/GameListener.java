@@ -0,0 +1,19 @@
+package com.example.doodle.sync;
+
+import com.example.doodle.models.Game;
+import com.parse.ParseUser;
+
+import java.util.List;
+
+// Hears about changes to a game, see GameChannel and GameSync
+// Only the fields that changed are reported, always on the main thread
+public interface GameListener {
+    // Called first for every change with the game as it is now, which replaces the one that was being watched
+    void onGameUpdated(Game game);
+    void onPlayersChanged(List<ParseUser> players);
+    void onHostChanged(ParseUser host);
+    void onTimeLimitChanged(int timeLimit);
+    void onRoundChanged(int round);
+    // The game was deleted, or couldn't be fetched
+    void onGameError(Exception e);
+}
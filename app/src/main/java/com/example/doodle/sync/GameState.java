@@ -0,0 +1,74 @@
+package com.example.doodle.sync;
+
+import com.example.doodle.models.Game;
+import com.parse.ParseUser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The last known state of a game, which each newer copy of the game is compared with
+// so listeners only hear about the fields that actually changed
+class GameState {
+    // Which fields changed, see update
+    static final int CHANGED_PLAYERS = 1;
+    static final int CHANGED_HOST = 1 << 1;
+    static final int CHANGED_TIME_LIMIT = 1 << 2;
+    static final int CHANGED_ROUND = 1 << 3;
+
+    private Game game;
+    private List<String> playerIds;
+    private String hostId;
+    private int timeLimit;
+    private int round;
+
+    GameState(Game game) {
+        this.game = game;
+        update(getPlayerIds(game), getHostId(game), game.getTimeLimit(), game.getRound());
+    }
+
+    // Starts from plain values instead of a game, for tests
+    GameState(List<String> playerIds, String hostId, int timeLimit, int round) {
+        update(playerIds, hostId, timeLimit, round);
+    }
+
+    Game getGame() {
+        return game;
+    }
+
+    // Tells the listener what changed since the last known state and remembers the new one
+    void apply(Game updatedGame, GameListener listener) {
+        game = updatedGame;
+        int changes = update(getPlayerIds(updatedGame), getHostId(updatedGame), updatedGame.getTimeLimit(), updatedGame.getRound());
+
+        listener.onGameUpdated(updatedGame);
+        if ((changes & CHANGED_PLAYERS) != 0) listener.onPlayersChanged(updatedGame.getPlayers());
+        if ((changes & CHANGED_HOST) != 0) listener.onHostChanged(updatedGame.getHost());
+        if ((changes & CHANGED_TIME_LIMIT) != 0) listener.onTimeLimitChanged(timeLimit);
+        if ((changes & CHANGED_ROUND) != 0) listener.onRoundChanged(round);
+    }
+
+    // Remembers the new state and returns the CHANGED_ flags of the fields that differ from the last one
+    int update(List<String> playerIds, String hostId, int timeLimit, int round) {
+        int changes = 0;
+        if (!playerIds.equals(this.playerIds)) changes |= CHANGED_PLAYERS;
+        if (!hostId.equals(this.hostId)) changes |= CHANGED_HOST;
+        if (timeLimit != this.timeLimit) changes |= CHANGED_TIME_LIMIT;
+        if (round != this.round) changes |= CHANGED_ROUND;
+
+        this.playerIds = new ArrayList<>(playerIds);
+        this.hostId = hostId;
+        this.timeLimit = timeLimit;
+        this.round = round;
+        return changes;
+    }
+
+    private static List<String> getPlayerIds(Game game) {
+        List<String> playerIds = new ArrayList<>();
+        for (ParseUser player : game.getPlayers()) playerIds.add(player.getObjectId());
+        return playerIds;
+    }
+
+    private static String getHostId(Game game) {
+        return game.getHost() == null ? "" : game.getHost().getObjectId();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.doodle.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.doodle.models.Game;
+import com.parse.ParseQuery;
+
+import java.util.concurrent.TimeUnit;
+
+// Keeps a game up to date during play by fetching it in the background
+// Nothing about a round changes much while it's being drawn, so the game is fetched rarely then, and more often
+// near the deadline and while waiting for the others to finish, when the next round can start at any moment
+// Fetches never overlap and only run on Parse's background threads, only the changes are reported, see GameState
+public class GameSync {
+    public static final String TAG = "GameSync";
+    public static final long SLOW_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    public static final long FAST_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    // How long before the deadline fetching speeds up
+    public static final long NEAR_DEADLINE = TimeUnit.SECONDS.toMillis(10);
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final GameState state;
+    private final GameListener listener;
+    private boolean running;
+    private boolean fetching;
+    // When the current round ends, or -1 while waiting for the others
+    private long roundDeadline = -1;
+
+    public GameSync(Game game, GameListener listener) {
+        this.state = new GameState(game);
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+        // A fetch still in flight from before schedules the next one itself
+        if (!fetching) scheduleFetch();
+    }
+
+    public void stop() {
+        running = false;
+        handler.removeCallbacksAndMessages(null);
+    }
+
+    // Called when a round starts with its deadline, or with -1 once the player has submitted and is waiting
+    public void setRoundDeadline(long roundDeadline) {
+        this.roundDeadline = roundDeadline;
+        // The next fetch may now be due sooner
+        if (running && !fetching) {
+            handler.removeCallbacksAndMessages(null);
+            scheduleFetch();
+        }
+    }
+
+    private long getInterval() {
+        if (roundDeadline == -1) return FAST_INTERVAL;
+        long timeLeft = roundDeadline - System.currentTimeMillis();
+        if (timeLeft <= NEAR_DEADLINE) return FAST_INTERVAL;
+        // Never sleep past the point where fetching should speed up
+        return Math.min(SLOW_INTERVAL, timeLeft - NEAR_DEADLINE);
+    }
+
+    private void scheduleFetch() {
+        handler.postDelayed(fetch, getInterval());
+    }
+
+    private final Runnable fetch = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) return;
+            fetching = true;
+            ParseQuery<Game> query = ParseQuery.getQuery(Game.class);
+            query.getInBackground(state.getGame().getObjectId(), (fetchedGame, e) -> {
+                fetching = false;
+                if (!running) return;
+                if (e != null) listener.onGameError(e);
+                else state.apply(fetchedGame, listener);
+                // The listener may have stopped the sync
+                if (running) scheduleFetch();
+            });
+        }
+    };
+}
@@ -0,0 +1,58 @@
+package com.example.doodle.sync;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+// Builds the queries for a list of objects that is loaded a page at a time, newest first
+// Each page starts right after the last object of the page before it (keyset pagination) instead of at an offset,
+// so the server never has to skip over the rows already loaded, and objects saved in the meantime don't shift the pages
+// Objects are ordered by createdAt and then by objectId, so ones created in the same millisecond keep a fixed order too
+public class KeysetPager<T extends ParseObject> {
+    public static final String TAG = "KeysetPager";
+
+    private static final String KEY_CREATED_AT = "createdAt";
+    private static final String KEY_OBJECT_ID = "objectId";
+
+    private final Supplier<ParseQuery<T>> querySupplier;
+    private final int pageSize;
+
+    // querySupplier returns a new query for every object in the list, without an order or a limit
+    public KeysetPager(Supplier<ParseQuery<T>> querySupplier, int pageSize) {
+        this.querySupplier = querySupplier;
+        this.pageSize = pageSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public ParseQuery<T> firstPage() {
+        return order(querySupplier.get());
+    }
+
+    // The page that comes after the given object, the last one loaded
+    public ParseQuery<T> pageAfter(T last) {
+        // Either created before it, or created at the same time but sorted after it
+        ParseQuery<T> olderQuery = querySupplier.get();
+        olderQuery.whereLessThan(KEY_CREATED_AT, last.getCreatedAt());
+        ParseQuery<T> tiedQuery = querySupplier.get();
+        tiedQuery.whereEqualTo(KEY_CREATED_AT, last.getCreatedAt());
+        tiedQuery.whereLessThan(KEY_OBJECT_ID, last.getObjectId());
+        return order(ParseQuery.or(Arrays.asList(olderQuery, tiedQuery)));
+    }
+
+    // Whether a page with this many objects was the last one
+    public boolean isLastPage(int size) {
+        return size < pageSize;
+    }
+
+    private ParseQuery<T> order(ParseQuery<T> query) {
+        query.addDescendingOrder(KEY_CREATED_AT);
+        query.addDescendingOrder(KEY_OBJECT_ID);
+        query.setLimit(pageSize);
+        return query;
+    }
+}
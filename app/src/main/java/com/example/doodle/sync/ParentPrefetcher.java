@@ -0,0 +1,165 @@
+package com.example.doodle.sync;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.doodle.NamedThreadFactory;
+import com.example.doodle.imaging.BitmapPool;
+import com.example.doodle.imaging.ChainCompositor;
+import com.example.doodle.imaging.ImageCodecs;
+import com.example.doodle.models.Doodle;
+import com.example.doodle.models.Game;
+import com.parse.ParseException;
+import com.parse.ParseFile;
+import com.parse.ParseQuery;
+import com.parse.ParseUser;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Fetches and decodes the doodle a player will add to in the next round while they wait for the others
+// The doodle is only looked for once the game, as GameSync keeps fetching it anyway, shows that its artist has
+// submitted it, or that the round is over, then it's downloaded and decoded in the background, so by the time
+// the round starts its bitmap is usually ready and the canvas can be shown straight away
+// A failure to reach the server is retried after a delay that doubles every time, up to MAX_RETRY_DELAY
+public class ParentPrefetcher {
+    public static final String TAG = "ParentPrefetcher";
+    public static final long INITIAL_RETRY_DELAY = TimeUnit.SECONDS.toMillis(2);
+    public static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("ParentPrefetcher"));
+
+    public interface Callback {
+        // Called on the main thread with the doodle and its bitmap, which belongs to the caller,
+        // or with the exception that stopped it from being fetched
+        void done(Doodle parent, Bitmap parentBitmap, Exception e);
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final String gameId;
+    private final ParseUser artist;
+    private final int tailLength;
+    private final int size;
+    private boolean cancelled;
+    // Whether the doodle is being looked for, or will be again after a delay
+    private boolean fetching;
+    private long retryDelay = INITIAL_RETRY_DELAY;
+    private boolean done;
+    private Doodle parent;
+    private Bitmap parentBitmap;
+    private Exception error;
+    private Callback callback;
+
+    // Prefetches the doodle the artist saved in the game with this tail length, decoded to fit in size x size
+    public ParentPrefetcher(Game game, ParseUser artist, int tailLength, int size) {
+        this.gameId = game.getObjectId();
+        this.artist = artist;
+        this.tailLength = tailLength;
+        this.size = size;
+    }
+
+    // Looks for the doodle right away if the game already shows it has been submitted
+    public void start(Game game) {
+        onGameUpdated(game);
+    }
+
+    // Called with every newer copy of the game, see GameListener.onGameUpdated
+    public void onGameUpdated(Game game) {
+        if (cancelled || done || fetching) return;
+        if (game.getRound() > tailLength || game.hasSubmitted(tailLength, artist)) {
+            fetching = true;
+            query.run();
+        }
+    }
+
+    // Hands the doodle over as soon as it's ready, which may be right away
+    public void get(Callback callback) {
+        this.callback = callback;
+        if (done) deliver();
+    }
+
+    // Stops prefetching and lets go of the bitmap if it wasn't handed over
+    public void cancel() {
+        cancelled = true;
+        callback = null;
+        mainHandler.removeCallbacksAndMessages(null);
+        BitmapPool.get().put(parentBitmap);
+        parentBitmap = null;
+    }
+
+    private final Runnable query = new Runnable() {
+        @Override
+        public void run() {
+            if (cancelled) return;
+            ParseQuery<Doodle> query = ParseQuery.getQuery(Doodle.class);
+            query.whereEqualTo(Doodle.KEY_IN_GAME, gameId);
+            query.whereEqualTo(Doodle.KEY_ARTIST, artist);
+            query.whereEqualTo(Doodle.KEY_TAIL_LENGTH, tailLength);
+            query.getFirstInBackground((doodle, e) -> {
+                if (cancelled) return;
+                if (e != null) finish(null, null, e);
+                else decode(doodle);
+            });
+        }
+    };
+
+    private void decode(Doodle doodle) {
+        executor.execute(() -> {
+            try {
+                Bitmap bitmap;
+                // A layer-only doodle's image is missing everything drawn before it
+                if (doodle.getIsLayer()) {
+                    bitmap = ChainCompositor.composite(ChainCompositor.findChain(doodle), null, size);
+                }
+                else {
+                    ParseFile image = doodle.getImage();
+                    if (image == null) throw new ParseException(ParseException.OBJECT_NOT_FOUND, "Doodle " + doodle.getObjectId() + " has no image");
+                    bitmap = ImageCodecs.forName(doodle.getImageCodec()).decode(image.getData(), size, size);
+                }
+                mainHandler.post(() -> finish(doodle, bitmap, null));
+            } catch (ParseException | RuntimeException e) {
+                mainHandler.post(() -> finish(doodle, null, e));
+            }
+        });
+    }
+
+    private void finish(Doodle doodle, Bitmap bitmap, Exception e) {
+        if (cancelled) {
+            BitmapPool.get().put(bitmap);
+            return;
+        }
+        if (e != null && isRetryable(e)) {
+            Log.w(TAG, "Couldn't prefetch the next doodle, retrying in " + retryDelay + "ms", e);
+            mainHandler.postDelayed(query, retryDelay);
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+            return;
+        }
+        if (e != null) Log.e(TAG, "Couldn't prefetch the next doodle", e);
+        fetching = false;
+        done = true;
+        parent = doodle;
+        parentBitmap = bitmap;
+        error = e;
+        if (callback != null) deliver();
+    }
+
+    // Failures to reach the server go away by themselves, and so does a doodle that hasn't been saved yet,
+    // such as when the round ended before its artist submitted
+    private boolean isRetryable(Exception e) {
+        if (!(e instanceof ParseException)) return false;
+        int code = ((ParseException) e).getCode();
+        return code == ParseException.OBJECT_NOT_FOUND || code == ParseException.CONNECTION_FAILED || code == ParseException.TIMEOUT
+                || code == ParseException.INTERNAL_SERVER_ERROR || code == ParseException.OTHER_CAUSE;
+    }
+
+    private void deliver() {
+        Callback callback = this.callback;
+        Bitmap bitmap = parentBitmap;
+        this.callback = null;
+        parentBitmap = null;
+        callback.done(parent, bitmap, error);
+    }
+}
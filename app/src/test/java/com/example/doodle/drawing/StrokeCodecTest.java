@@ -0,0 +1,64 @@
+package com.example.doodle.drawing;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StrokeCodecTest {
+    @Test
+    public void drawing_roundTrips() {
+        List<Stroke> strokes = Arrays.asList(
+                new Stroke(0xFF000000, 10, new float[] {1, 2.5f, 4.25f}, new float[] {3, 3.75f, 8}),
+                new Stroke(0x80FF8000, 30, new float[] {500}, new float[] {250.5f}));
+
+        StrokeDrawing drawing = StrokeCodec.decode(StrokeCodec.encode(strokes, 1080, 1920));
+
+        assertEquals(1080, drawing.getCanvasWidth());
+        assertEquals(1920, drawing.getCanvasHeight());
+        assertEquals(strokes.size(), drawing.getStrokes().size());
+        for (int i = 0; i < strokes.size(); i++) assertStrokeEquals(strokes.get(i), drawing.getStrokes().get(i));
+    }
+
+    @Test
+    public void stroke_roundTripsNegativeDeltas() {
+        // The stroke moves back towards the origin and past it, so the deltas are negative
+        Stroke stroke = new Stroke(0xFFFFFFFF, 20, new float[] {100, 50.25f, -3.75f, -200}, new float[] {100, 20.5f, -10, 0.25f});
+
+        assertStrokeEquals(stroke, StrokeCodec.decodeStroke(StrokeCodec.encodeStroke(stroke)));
+    }
+
+    @Test
+    public void stroke_isQuantizedToAQuarterPixel() {
+        Stroke stroke = new Stroke(0xFF000000, 10.1f, new float[] {1.1f}, new float[] {2.9f});
+
+        Stroke decoded = StrokeCodec.decodeStroke(StrokeCodec.encodeStroke(stroke));
+
+        assertEquals(10, decoded.getWidth(), 0);
+        assertEquals(1, decoded.getX(0), 0);
+        assertEquals(3, decoded.getY(0), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsOtherData() {
+        StrokeCodec.decode(new byte[] {'P', 'N', 'G', 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsTruncatedData() {
+        byte[] data = StrokeCodec.encode(Arrays.asList(new Stroke(0xFF000000, 10, new float[] {1, 2}, new float[] {3, 4})), 100, 100);
+        StrokeCodec.decode(Arrays.copyOf(data, data.length - 1));
+    }
+
+    static void assertStrokeEquals(Stroke expected, Stroke actual) {
+        assertEquals(expected.getColor(), actual.getColor());
+        assertEquals(expected.getWidth(), actual.getWidth(), 0);
+        assertEquals(expected.getPointCount(), actual.getPointCount());
+        for (int i = 0; i < expected.getPointCount(); i++) {
+            assertEquals(expected.getX(i), actual.getX(i), 0);
+            assertEquals(expected.getY(i), actual.getY(i), 0);
+        }
+    }
+}
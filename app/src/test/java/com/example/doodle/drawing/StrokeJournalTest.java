@@ -0,0 +1,145 @@
+package com.example.doodle.drawing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static com.example.doodle.drawing.StrokeCodecTest.assertStrokeEquals;
+import static org.junit.Assert.*;
+
+public class StrokeJournalTest {
+    private static final String NAME = "drawing";
+    // Record types, see StrokeJournal
+    private static final int RECORD_STROKE = 1;
+    private static final int RECORD_UNDO = 2;
+    private static final int RECORD_REDO = 3;
+
+    private static final Stroke FIRST = new Stroke(0xFF000000, 10, new float[] {0, 10}, new float[] {0, 10});
+    private static final Stroke SECOND = new Stroke(0xFFFF0000, 20, new float[] {5, -5}, new float[] {5, 15});
+    private static final Stroke THIRD = new Stroke(0xFF00FF00, 30, new float[] {100}, new float[] {200});
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private DataOutputStream out;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder();
+        out = new DataOutputStream(new FileOutputStream(new File(directory, NAME + ".journal")));
+    }
+
+    @Test
+    public void read_replaysStrokes() throws IOException {
+        writeStroke(FIRST);
+        writeStroke(SECOND);
+        out.close();
+
+        assertStrokes(read(), FIRST, SECOND);
+    }
+
+    @Test
+    public void read_replaysUndoAndRedo() throws IOException {
+        writeStroke(FIRST);
+        writeStroke(SECOND);
+        writeStroke(THIRD);
+        out.write(RECORD_UNDO);
+        out.write(RECORD_UNDO);
+        out.write(RECORD_REDO);
+        out.close();
+
+        assertStrokes(read(), FIRST, SECOND);
+    }
+
+    @Test
+    public void read_dropsUndoneStrokesOnceAStrokeIsAdded() throws IOException {
+        writeStroke(FIRST);
+        writeStroke(SECOND);
+        out.write(RECORD_UNDO);
+        writeStroke(THIRD);
+        // Nothing is left to redo
+        out.write(RECORD_REDO);
+        out.close();
+
+        assertStrokes(read(), FIRST, THIRD);
+    }
+
+    @Test
+    public void read_ignoresUndoPastTheStart() throws IOException {
+        writeStroke(FIRST);
+        out.write(RECORD_UNDO);
+        out.write(RECORD_UNDO);
+        out.write(RECORD_REDO);
+        out.close();
+
+        assertStrokes(read(), FIRST);
+    }
+
+    @Test
+    public void read_ignoresTruncatedLastRecord() throws IOException {
+        writeStroke(FIRST);
+        writeStroke(SECOND);
+        // The process died halfway through writing the third stroke
+        byte[] data = StrokeCodec.encodeStroke(THIRD);
+        out.write(RECORD_STROKE);
+        out.writeInt(data.length);
+        out.write(data, 0, data.length / 2);
+        out.close();
+
+        assertStrokes(read(), FIRST, SECOND);
+    }
+
+    @Test
+    public void read_stopsAtANegativeRecordLength() throws IOException {
+        writeStroke(FIRST);
+        out.write(RECORD_STROKE);
+        out.writeInt(-1);
+        // Nothing after a corrupt record can be trusted
+        writeStroke(SECOND);
+        out.close();
+
+        assertStrokes(read(), FIRST);
+    }
+
+    @Test
+    public void read_stopsAtARecordLongerThanTheJournal() throws IOException {
+        writeStroke(FIRST);
+        out.write(RECORD_STROKE);
+        out.writeInt(Integer.MAX_VALUE);
+        out.close();
+
+        assertStrokes(read(), FIRST);
+    }
+
+    @Test
+    public void read_returnsNothingWithoutAJournal() throws IOException {
+        out.close();
+        new File(directory, NAME + ".journal").delete();
+
+        assertTrue(read().isEmpty());
+    }
+
+    private List<Stroke> read() {
+        return StrokeJournal.open(directory, NAME).read();
+    }
+
+    private void writeStroke(Stroke stroke) throws IOException {
+        byte[] data = StrokeCodec.encodeStroke(stroke);
+        out.write(RECORD_STROKE);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static void assertStrokes(List<Stroke> actual, Stroke... expected) {
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) assertStrokeEquals(expected[i], actual.get(i));
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.doodle.drawing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StrokeMetricsSummaryTest {
+    @Test
+    public void strokes_areAddedUp() {
+        StrokeMetricsSummary summary = new StrokeMetricsSummary();
+        summary.add(new StrokeMetrics(0, 1080, 1080, 10, 1, 2, 5, 20, 40));
+        summary.add(new StrokeMetrics(1, 1080, 1080, 30, 3, 4, 9, 10, 30));
+
+        assertEquals(2, summary.getStrokes());
+        assertEquals(40, summary.getFrameCount());
+        assertEquals(4, summary.getDroppedFrameCount());
+        assertEquals(9, summary.getMaxRenderMillis(), 0);
+        assertEquals(40, summary.getMaxLatencyMillis(), 0);
+    }
+
+    @Test
+    public void averages_areWeightedByFrames() {
+        StrokeMetricsSummary summary = new StrokeMetricsSummary();
+        summary.add(new StrokeMetrics(0, 1080, 1080, 10, 0, 2, 2, 20, 20));
+        summary.add(new StrokeMetrics(1, 1080, 1080, 30, 0, 4, 4, 10, 10));
+
+        assertEquals(3.5f, summary.getAverageRenderMillis(), 1e-4f);
+        assertEquals(12.5f, summary.getAverageLatencyMillis(), 1e-4f);
+    }
+
+    @Test
+    public void emptySummary_hasNoAverages() {
+        StrokeMetricsSummary summary = new StrokeMetricsSummary();
+
+        assertTrue(summary.isEmpty());
+        assertEquals(0, summary.getAverageRenderMillis(), 0);
+        assertEquals(0, summary.getAverageLatencyMillis(), 0);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.doodle.drawing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StrokeSimplifierTest {
+    private static final float WIDTH = 10;
+    private static final float TOLERANCE = Math.max(StrokeSimplifier.MIN_TOLERANCE, WIDTH * StrokeSimplifier.TOLERANCE_PER_WIDTH);
+
+    @Test
+    public void straightStroke_keepsAHandfulOfPoints() {
+        float[] xs = new float[101];
+        float[] ys = new float[101];
+        for (int i = 0; i <= 100; i++) {
+            xs[i] = i;
+            ys[i] = 0;
+        }
+
+        Stroke stroke = simplify(xs, ys);
+
+        assertTrue(stroke.getPointCount() <= 3);
+        assertPoint(0, 0, stroke, 0);
+        assertPoint(100, 0, stroke, stroke.getPointCount() - 1);
+    }
+
+    @Test
+    public void zigzagStroke_keepsEveryCorner() {
+        float[] xs = new float[21];
+        float[] ys = new float[21];
+        for (int i = 0; i <= 20; i++) {
+            xs[i] = i * 5;
+            ys[i] = i % 2 == 0 ? 0 : 10;
+        }
+
+        Stroke stroke = simplify(xs, ys);
+
+        assertEquals(xs.length, stroke.getPointCount());
+        assertWithinTolerance(xs, ys, stroke);
+    }
+
+    @Test
+    public void strokeReturningToItsOrigin_keepsItsFarEnd() {
+        // Out along a straight line and back the same way, every point coming back is close to the last kept point
+        float[] xs = new float[101];
+        float[] ys = new float[101];
+        for (int i = 0; i <= 100; i++) {
+            xs[i] = i <= 50 ? i : 100 - i;
+            ys[i] = 0;
+        }
+
+        Stroke stroke = simplify(xs, ys);
+
+        float maxX = 0;
+        for (int i = 0; i < stroke.getPointCount(); i++) maxX = Math.max(maxX, stroke.getX(i));
+        assertTrue("Far end " + maxX + " was dropped", maxX >= 50 - TOLERANCE);
+        assertPoint(0, 0, stroke, stroke.getPointCount() - 1);
+        assertWithinTolerance(xs, ys, stroke);
+    }
+
+    @Test
+    public void slowlyDriftingStroke_staysWithinTolerance() {
+        // Every point is close to the line through its neighbours, but the stroke as a whole bends away from it
+        float[] xs = new float[200];
+        float[] ys = new float[200];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i;
+            ys[i] = i * i / 400f;
+        }
+
+        assertWithinTolerance(xs, ys, simplify(xs, ys));
+    }
+
+    @Test
+    public void jitter_isDropped() {
+        float[] xs = {0, 0.2f, -0.3f, 0.1f, 0, -0.2f};
+        float[] ys = {0, 0.1f, 0.2f, -0.3f, 0.1f, 0};
+
+        Stroke stroke = simplify(xs, ys);
+
+        assertEquals(2, stroke.getPointCount());
+        assertWithinTolerance(xs, ys, stroke);
+    }
+
+    private static Stroke simplify(float[] xs, float[] ys) {
+        StrokeSimplifier simplifier = new StrokeSimplifier(WIDTH, xs[0], ys[0]);
+        for (int i = 1; i < xs.length; i++) simplifier.add(xs[i], ys[i]);
+        return simplifier.finish(0xFF000000, WIDTH);
+    }
+
+    private static void assertPoint(float x, float y, Stroke stroke, int index) {
+        assertEquals(x, stroke.getX(index), 0);
+        assertEquals(y, stroke.getY(index), 0);
+    }
+
+    // Every point that was drawn has to be close to the simplified stroke
+    private static void assertWithinTolerance(float[] xs, float[] ys, Stroke stroke) {
+        for (int i = 0; i < xs.length; i++) {
+            float distance = Float.MAX_VALUE;
+            for (int j = 0; j + 1 < stroke.getPointCount(); j++) {
+                distance = Math.min(distance, distanceToSegment(xs[i], ys[i], stroke.getX(j), stroke.getY(j), stroke.getX(j + 1), stroke.getY(j + 1)));
+            }
+            assertTrue("Point " + i + " is " + distance + " away from the simplified stroke", distance <= TOLERANCE + 1e-4f);
+        }
+    }
+
+    private static float distanceToSegment(float x, float y, float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+        return (float) Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+    }
+}
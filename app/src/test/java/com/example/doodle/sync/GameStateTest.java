@@ -0,0 +1,65 @@
+package com.example.doodle.sync;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.example.doodle.sync.GameState.*;
+import static org.junit.Assert.*;
+
+public class GameStateTest {
+    private GameState state;
+
+    @Before
+    public void setUp() {
+        state = new GameState(Arrays.asList("host", "guest"), "host", 60, 0);
+    }
+
+    @Test
+    public void sameGame_changesNothing() {
+        // Every update of the game is pushed, including the ones to fields nobody listens for
+        assertEquals(0, state.update(Arrays.asList("host", "guest"), "host", 60, 0));
+    }
+
+    @Test
+    public void playerJoining_changesOnlyThePlayers() {
+        assertEquals(CHANGED_PLAYERS, state.update(Arrays.asList("host", "guest", "late"), "host", 60, 0));
+    }
+
+    @Test
+    public void playersReordered_changesThePlayers() {
+        // The host is handed to the first player, so the order matters
+        assertEquals(CHANGED_PLAYERS, state.update(Arrays.asList("guest", "host"), "host", 60, 0));
+    }
+
+    @Test
+    public void hostLeaving_changesThePlayersAndTheHost() {
+        assertEquals(CHANGED_PLAYERS | CHANGED_HOST, state.update(Collections.singletonList("guest"), "guest", 60, 0));
+    }
+
+    @Test
+    public void timeLimitAndRound_changeIndependently() {
+        assertEquals(CHANGED_TIME_LIMIT, state.update(Arrays.asList("host", "guest"), "host", 90, 0));
+        assertEquals(CHANGED_ROUND, state.update(Arrays.asList("host", "guest"), "host", 90, 1));
+    }
+
+    @Test
+    public void change_isOnlyReportedOnce() {
+        state.update(Arrays.asList("host", "guest"), "host", 60, 1);
+
+        assertEquals(0, state.update(Arrays.asList("host", "guest"), "host", 60, 1));
+    }
+
+    @Test
+    public void laterChangesToTheList_areNotRemembered() {
+        List<String> playerIds = new ArrayList<>(Arrays.asList("host", "guest"));
+        state.update(playerIds, "host", 60, 0);
+        playerIds.add("late");
+
+        assertEquals(CHANGED_PLAYERS, state.update(playerIds, "host", 60, 0));
+    }
+}